@@ -0,0 +1,63 @@
+plugins {
+    kotlin("jvm") version "2.0.21"
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+    maven("https://repo.dairy.foundation/releases")
+}
+
+// the benchmarks and tests run on a plain JVM,
+// so rather than depending on the library (an android library),
+// we compile the parts of it that we benchmark against stubs of the FTC SDK
+val library = listOf(
+    "BackgroundWriter.kt",
+    "Bindings.kt",
+    "Context.kt",
+    "Devices.kt",
+    "Filters.kt",
+    "Gamepads.kt",
+    "Handoff.kt",
+    "HeadlessContext.kt",
+    "HardwareIO.kt",
+    "Instrumentation.kt",
+    "ParallelScan.kt",
+    "ProgramIndex.kt",
+    "RateGroups.kt",
+    "Recorder.kt",
+    "Replay.kt",
+    "ScanCache.kt",
+    "State.kt",
+    "TelemetryLines.kt",
+)
+
+sourceSets {
+    main {
+        java.srcDir("src/stubs/java")
+        kotlin {
+            srcDir("../src/main/kotlin")
+            library.forEach { include("dev/frozenmilk/dairy/mercurial/ftc/$it") }
+        }
+    }
+}
+
+kotlin {
+    jvmToolchain(17)
+
+    // lets the benchmarks use internal declarations of the library
+    target.compilations.getByName("jmh").associateWith(target.compilations.getByName("main"))
+}
+
+dependencies {
+    implementation("dev.frozenmilk.dairy:Mercurial:2.0.0-beta8")
+    testImplementation(kotlin("test"))
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    profilers.add("gc")
+}
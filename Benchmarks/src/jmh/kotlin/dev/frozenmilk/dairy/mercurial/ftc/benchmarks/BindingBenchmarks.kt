@@ -0,0 +1,67 @@
+package dev.frozenmilk.dairy.mercurial.ftc.benchmarks
+
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.ftc.Bindings
+import dev.frozenmilk.dairy.mercurial.ftc.Button
+import dev.frozenmilk.dairy.mercurial.ftc.Context
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * the cost of a tick with [bindings] bindings of [mode] made through [Context.bindings]
+ *
+ * `polled` bindings use a condition, `button` bindings are made on [Button.A] of [Context.gamepads]
+ *
+ * when [toggling] is set, the button changes every tick,
+ * otherwise it is never pressed
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class BindingBenchmarks {
+    @JvmField
+    @Param("1", "10", "40")
+    var bindings = 0
+
+    @JvmField
+    @Param("EXEC", "SPAWN", "WHILE_TRUE")
+    var mode = Bindings.Mode.EXEC
+
+    @JvmField
+    @Param("polled", "button")
+    var source = ""
+
+    @JvmField
+    @Param("false", "true")
+    var toggling = false
+
+    private val ticking = TickingContext()
+
+    @Setup
+    fun setup() {
+        val context = ticking.context
+        val gamepad = context.gamepad1
+        val state = context.gamepads.gamepad1
+        repeat(bindings) {
+            when (source) {
+                "polled" -> context.bindings.bind(mode, { gamepad.a }, exec {})
+                "button" -> context.bindings.bind(mode, state, Button.A, exec {})
+                else -> throw IllegalArgumentException(source)
+            }
+        }
+        if (toggling) context.onEndTick { gamepad.a = !gamepad.a }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    fun tick() = ticking.tick(TICKS)
+}
@@ -0,0 +1,65 @@
+package dev.frozenmilk.dairy.mercurial.ftc.benchmarks
+
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.ftc.Context
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+import java.util.function.BooleanSupplier
+
+/**
+ * the cost of a tick that evaluates one [filter] from [Context], with a stable, or a toggling input
+ *
+ * `legacy` is the [Continuations.Clock] based [Context.risingEdge]
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class EdgeBenchmarks {
+    @JvmField
+    @Param("legacy", "risingEdge", "fallingEdge", "toggle", "debounce", "hold")
+    var filter = ""
+
+    @JvmField
+    @Param("false", "true")
+    var toggling = false
+
+    private val ticking = TickingContext()
+    private var input = false
+    private var output = false
+
+    @Setup
+    fun setup() {
+        val context = ticking.context
+        val cond = BooleanSupplier { input }
+        val supplier = when (filter) {
+            "legacy" -> context.risingEdge(Continuations.Clock.Standard, cond)
+            "risingEdge" -> context.risingEdge(cond)
+            "fallingEdge" -> context.fallingEdge(cond)
+            "toggle" -> context.toggle(cond)
+            "debounce" -> context.debounce(0.001, cond)
+            "hold" -> context.hold(0.1, cond)
+            else -> throw IllegalArgumentException(filter)
+        }
+        context.schedule(loop(exec {
+            if (toggling) input = !input
+            output = supplier.asBoolean
+        }))
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    fun tick(): Boolean {
+        ticking.tick(TICKS)
+        return output
+    }
+}
@@ -0,0 +1,62 @@
+package dev.frozenmilk.dairy.mercurial.ftc.benchmarks
+
+import com.qualcomm.robotcore.hardware.Gamepad
+import com.qualcomm.robotcore.hardware.HardwareMap
+import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import dev.frozenmilk.dairy.mercurial.ftc.Context
+import dev.frozenmilk.dairy.mercurial.ftc.State
+import org.firstinspires.ftc.robotcore.external.Func
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+
+/**
+ * the number of ticks run per benchmark invocation
+ */
+const val TICKS = 1000
+
+object NoTelemetry : Telemetry {
+    private object NoItem : Telemetry.Item {
+        override fun setRetained(retained: Boolean?) = this
+    }
+
+    override fun addData(caption: String?, format: String?, vararg args: Any?): Telemetry.Item = NoItem
+    override fun addData(caption: String?, value: Any?): Telemetry.Item = NoItem
+    override fun <T : Any?> addData(caption: String?, valueProducer: Func<T>?): Telemetry.Item = NoItem
+    override fun <T : Any?> addData(caption: String?, format: String?, valueProducer: Func<T>?): Telemetry.Item = NoItem
+    override fun removeItem(item: Telemetry.Item?) = true
+    override fun update() = true
+}
+
+/**
+ * runs the scheduler for [ticks] ticks
+ */
+fun Scheduler.tick(ticks: Int) {
+    var remaining = ticks
+    start { remaining-- > 0 }
+}
+
+/**
+ * a [Context] that is run through its own tick lifecycle,
+ * so that tick hooks, [Context.ticks] and [Context.tickTime] are all maintained
+ */
+class TickingContext {
+    private var remaining = 0
+
+    val context = Context(
+        OpModeMeta("benchmark"),
+        { if (remaining-- > 0) State.INIT else State.LOOP },
+        Scheduler.Standard(),
+        HardwareMap(),
+        NoTelemetry,
+        Gamepad(),
+        Gamepad(),
+    )
+
+    /**
+     * runs the context for [ticks] ticks
+     */
+    fun tick(ticks: Int) {
+        remaining = ticks
+        context.waitForStart()
+    }
+}
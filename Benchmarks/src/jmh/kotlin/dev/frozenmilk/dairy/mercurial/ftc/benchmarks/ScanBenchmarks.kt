@@ -0,0 +1,103 @@
+package dev.frozenmilk.dairy.mercurial.ftc.benchmarks
+
+import dev.frozenmilk.dairy.mercurial.ftc.ParallelScan
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * the startup cost of reading the program fields of [PROGRAMS] classes,
+ * each with a static initialiser that does some work,
+ * either one after another, or initialised by a [ParallelScan] with [threads] threads
+ *
+ * each invocation loads the classes into a new class loader, so they are initialised again
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ScanBenchmarks {
+    @JvmField
+    @Param("2", "4")
+    var threads = 0
+
+    private lateinit var loader: ClassLoader
+
+    @Setup(Level.Invocation)
+    fun setup() {
+        loader = FreshLoader(ScanBenchmarks::class.java.classLoader)
+    }
+
+    @Benchmark
+    fun sequential(blackhole: Blackhole) {
+        PROGRAMS.forEach { name ->
+            blackhole.consume(Class.forName(name, false, loader).getDeclaredField("program").get(null))
+        }
+    }
+
+    @Benchmark
+    fun parallel(blackhole: Blackhole) {
+        val scan = ParallelScan.start(loader, PROGRAMS, threads) { true }
+        PROGRAMS.forEach { name ->
+            val cls = Class.forName(name, false, loader)
+            scan.await(cls)
+            blackhole.consume(cls.getDeclaredField("program").get(null))
+        }
+    }
+
+    /**
+     * defines the program classes again, instead of delegating them to its parent
+     */
+    private class FreshLoader(parent: ClassLoader) : ClassLoader(parent) {
+        override fun loadClass(name: String, resolve: Boolean): Class<*> {
+            if (name !in PROGRAMS) return super.loadClass(name, resolve)
+            synchronized(getClassLoadingLock(name)) {
+                findLoadedClass(name)?.let { return it }
+                val bytes = parent.getResourceAsStream(name.replace('.', '/') + ".class")!!.use { it.readBytes() }
+                return defineClass(name, bytes, 0, bytes.size)
+            }
+        }
+    }
+
+    companion object {
+        val PROGRAMS = (0 until 16).map { "dev.frozenmilk.dairy.mercurial.ftc.benchmarks.ScanProgram$it" }
+    }
+}
+
+/**
+ * stands in for building the closures of a program in a static initialiser
+ */
+fun initialise(seed: Int): LongArray {
+    val values = LongArray(1 shl 16)
+    var x = seed.toLong()
+    for (i in values.indices) {
+        x = x * 6364136223846793005L + 1442695040888963407L
+        values[i] = x
+    }
+    values.sort()
+    return values
+}
+
+object ScanProgram0 { @JvmField val program = initialise(0) }
+object ScanProgram1 { @JvmField val program = initialise(1) }
+object ScanProgram2 { @JvmField val program = initialise(2) }
+object ScanProgram3 { @JvmField val program = initialise(3) }
+object ScanProgram4 { @JvmField val program = initialise(4) }
+object ScanProgram5 { @JvmField val program = initialise(5) }
+object ScanProgram6 { @JvmField val program = initialise(6) }
+object ScanProgram7 { @JvmField val program = initialise(7) }
+object ScanProgram8 { @JvmField val program = initialise(8) }
+object ScanProgram9 { @JvmField val program = initialise(9) }
+object ScanProgram10 { @JvmField val program = initialise(10) }
+object ScanProgram11 { @JvmField val program = initialise(11) }
+object ScanProgram12 { @JvmField val program = initialise(12) }
+object ScanProgram13 { @JvmField val program = initialise(13) }
+object ScanProgram14 { @JvmField val program = initialise(14) }
+object ScanProgram15 { @JvmField val program = initialise(15) }
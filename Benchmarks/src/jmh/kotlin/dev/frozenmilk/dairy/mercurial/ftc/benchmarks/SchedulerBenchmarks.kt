@@ -0,0 +1,39 @@
+package dev.frozenmilk.dairy.mercurial.ftc.benchmarks
+
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * the cost of a [Scheduler.Standard] tick with [fibers] looping fibers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class SchedulerBenchmarks {
+    @JvmField
+    @Param("1", "10", "100")
+    var fibers = 0
+
+    private lateinit var scheduler: Scheduler
+
+    @Setup
+    fun setup() {
+        scheduler = Scheduler.Standard()
+        repeat(fibers) { scheduler.schedule(loop(exec {}).intoContinuation()) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    fun tick() = scheduler.tick(TICKS)
+}
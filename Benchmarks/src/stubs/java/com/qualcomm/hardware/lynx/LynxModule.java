@@ -0,0 +1,22 @@
+package com.qualcomm.hardware.lynx;
+
+/**
+ * stub of the FTC SDK's LynxModule, only bulk caching is present
+ */
+public class LynxModule {
+	public enum BulkCachingMode {
+		OFF, MANUAL, AUTO
+	}
+
+	private BulkCachingMode bulkCachingMode = BulkCachingMode.OFF;
+
+	public BulkCachingMode getBulkCachingMode() {
+		return bulkCachingMode;
+	}
+
+	public void setBulkCachingMode(BulkCachingMode mode) {
+		bulkCachingMode = mode;
+	}
+
+	public void clearBulkCache() {}
+}
@@ -0,0 +1,10 @@
+package com.qualcomm.robotcore.hardware;
+
+/**
+ * stub of the FTC SDK's DcMotorSimple
+ */
+public interface DcMotorSimple extends HardwareDevice {
+	void setPower(double power);
+
+	double getPower();
+}
@@ -0,0 +1,30 @@
+package com.qualcomm.robotcore.hardware;
+
+/**
+ * stub of the FTC SDK's Gamepad, only the state fields are present
+ */
+@SuppressWarnings("unused")
+public class Gamepad {
+	public volatile float left_stick_x = 0f;
+	public volatile float left_stick_y = 0f;
+	public volatile float right_stick_x = 0f;
+	public volatile float right_stick_y = 0f;
+	public volatile boolean dpad_up = false;
+	public volatile boolean dpad_down = false;
+	public volatile boolean dpad_left = false;
+	public volatile boolean dpad_right = false;
+	public volatile boolean a = false;
+	public volatile boolean b = false;
+	public volatile boolean x = false;
+	public volatile boolean y = false;
+	public volatile boolean guide = false;
+	public volatile boolean start = false;
+	public volatile boolean back = false;
+	public volatile boolean left_bumper = false;
+	public volatile boolean right_bumper = false;
+	public volatile boolean left_stick_button = false;
+	public volatile boolean right_stick_button = false;
+	public volatile float left_trigger = 0f;
+	public volatile float right_trigger = 0f;
+	public volatile boolean touchpad = false;
+}
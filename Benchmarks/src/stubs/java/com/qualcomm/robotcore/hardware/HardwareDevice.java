@@ -0,0 +1,7 @@
+package com.qualcomm.robotcore.hardware;
+
+/**
+ * stub of the FTC SDK's HardwareDevice
+ */
+public interface HardwareDevice {
+}
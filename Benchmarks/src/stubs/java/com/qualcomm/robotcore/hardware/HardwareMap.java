@@ -0,0 +1,42 @@
+package com.qualcomm.robotcore.hardware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * stub of the FTC SDK's HardwareMap, backed by a single map of names to devices
+ */
+public class HardwareMap {
+	private final Map<String, Object> devices = new HashMap<>();
+
+	public HardwareMap() {
+	}
+
+	/**
+	 * the SDK's constructor, takes an android Context and an OpModeManagerNotifier, which are both unused here
+	 */
+	public HardwareMap(Object appContext, Object notifier) {
+	}
+
+	public void put(String deviceName, Object device) {
+		devices.put(deviceName, device);
+	}
+
+	public <T> T get(Class<? extends T> classOrInterface, String deviceName) {
+		Object device = devices.get(deviceName);
+		if (!classOrInterface.isInstance(device)) {
+			throw new IllegalArgumentException(String.format("Unable to find a hardware device with name \"%s\" and type %s", deviceName, classOrInterface.getSimpleName()));
+		}
+		return classOrInterface.cast(device);
+	}
+
+	public <T> List<T> getAll(Class<? extends T> classOrInterface) {
+		List<T> result = new ArrayList<>();
+		for (Object device : devices.values()) {
+			if (classOrInterface.isInstance(device)) result.add(classOrInterface.cast(device));
+		}
+		return result;
+	}
+}
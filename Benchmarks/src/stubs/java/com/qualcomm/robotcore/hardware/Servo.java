@@ -0,0 +1,10 @@
+package com.qualcomm.robotcore.hardware;
+
+/**
+ * stub of the FTC SDK's Servo
+ */
+public interface Servo extends HardwareDevice {
+	void setPosition(double position);
+
+	double getPosition();
+}
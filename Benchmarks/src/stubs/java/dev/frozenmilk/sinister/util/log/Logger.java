@@ -0,0 +1,9 @@
+package dev.frozenmilk.sinister.util.log;
+
+/**
+ * stub of Sloth's Logger, only the methods used by the library are present
+ */
+public class Logger {
+	public static void d(String tag, String message) {
+	}
+}
@@ -0,0 +1,8 @@
+package org.firstinspires.ftc.robotcore.external;
+
+/**
+ * stub of the FTC SDK's Func
+ */
+public interface Func<T> {
+	T value();
+}
@@ -0,0 +1,22 @@
+package org.firstinspires.ftc.robotcore.external;
+
+/**
+ * stub of the FTC SDK's Telemetry, only the methods used by the library are present
+ */
+public interface Telemetry {
+	interface Item {
+		Item setRetained(Boolean retained);
+	}
+
+	Item addData(String caption, String format, Object... args);
+
+	Item addData(String caption, Object value);
+
+	<T> Item addData(String caption, Func<T> valueProducer);
+
+	<T> Item addData(String caption, String format, Func<T> valueProducer);
+
+	boolean removeItem(Item item);
+
+	boolean update();
+}
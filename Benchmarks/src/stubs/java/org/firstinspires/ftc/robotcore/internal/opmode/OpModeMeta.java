@@ -0,0 +1,12 @@
+package org.firstinspires.ftc.robotcore.internal.opmode;
+
+/**
+ * stub of the FTC SDK's OpModeMeta
+ */
+public class OpModeMeta {
+	public final String name;
+
+	public OpModeMeta(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,175 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.hardware.lynx.LynxModule
+import com.qualcomm.robotcore.hardware.DcMotorSimple
+import com.qualcomm.robotcore.hardware.HardwareMap
+import com.qualcomm.robotcore.hardware.Servo
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class HardwareIOTest {
+    // everything the fake hardware is asked to do, in order
+    private val log = ArrayList<String>()
+
+    private inner class Hub(mode: LynxModule.BulkCachingMode) : LynxModule() {
+        init {
+            bulkCachingMode = mode
+        }
+
+        override fun clearBulkCache() {
+            log += "clear"
+        }
+    }
+
+    private inner class Motor : DcMotorSimple {
+        private var power = 0.0
+
+        override fun setPower(power: Double) {
+            log += "power $power"
+            this.power = power
+        }
+
+        override fun getPower() = power
+    }
+
+    private inner class Arm : Servo {
+        private var position = 0.0
+
+        override fun setPosition(position: Double) {
+            log += "position $position"
+            this.position = position
+        }
+
+        override fun getPosition() = position
+    }
+
+    @Test
+    fun switchesToManualCachingUntilClosed() {
+        val hardwareMap = HardwareMap()
+        val auto = Hub(LynxModule.BulkCachingMode.AUTO)
+        val off = Hub(LynxModule.BulkCachingMode.OFF)
+        hardwareMap.put("auto", auto)
+        hardwareMap.put("off", off)
+
+        val io = HardwareIO(hardwareMap)
+        assertEquals(LynxModule.BulkCachingMode.MANUAL, auto.bulkCachingMode)
+        assertEquals(LynxModule.BulkCachingMode.MANUAL, off.bulkCachingMode)
+
+        io.close()
+        assertEquals(LynxModule.BulkCachingMode.AUTO, auto.bulkCachingMode)
+        assertEquals(LynxModule.BulkCachingMode.OFF, off.bulkCachingMode)
+    }
+
+    @Test
+    fun closeSendsQueuedWrites() {
+        val motor = Motor()
+        val io = HardwareIO(HardwareMap())
+        io.power(motor).power = 0.5
+        assertEquals(emptyList(), log)
+
+        io.close()
+        assertEquals(listOf("power 0.5"), log)
+    }
+
+    @Test
+    fun clearsAtTheStartAndFlushesAtTheEndOfEachTick() {
+        val context = HeadlessContext(OpModeMeta("io"))
+        val hub = Hub(LynxModule.BulkCachingMode.AUTO)
+        val motor = Motor()
+        context.hardwareMap.put("hub", hub)
+        context.start {
+            val power = hardwareIO.power(motor)
+            waitForStart()
+            schedule(loop(exec {
+                log += "tick"
+                // only the last write of the tick is sent
+                power.power = 0.5
+                power.power = ticks.toDouble()
+            }))
+            dropToScheduler()
+        }
+
+        context.step()
+        assertEquals(LynxModule.BulkCachingMode.MANUAL, hub.bulkCachingMode)
+        assertEquals(listOf("clear"), log)
+
+        log.clear()
+        context.setState(State.LOOP)
+        context.step(2)
+        assertEquals(listOf("clear", "tick", "power 2.0", "clear", "tick", "power 3.0"), log)
+
+        context.stop()
+        assertEquals(LynxModule.BulkCachingMode.AUTO, hub.bulkCachingMode)
+    }
+
+    @Test
+    fun dropsPowerWritesWithinEpsilon() {
+        val io = HardwareIO(HardwareMap())
+        io.powerEpsilon = 0.1
+        val power = io.power(Motor())
+
+        // the first write is sent, even though the motor is already at 0
+        power.power = 0.0
+        io.flush()
+        assertEquals(listOf("power 0.0"), log)
+
+        power.power = 0.5
+        io.flush()
+        power.power = 0.55
+        io.flush()
+        power.power = 0.45
+        io.flush()
+        assertEquals(listOf("power 0.0", "power 0.5"), log)
+
+        power.power = 0.65
+        io.flush()
+        assertEquals(listOf("power 0.0", "power 0.5", "power 0.65"), log)
+
+        // stopping is always sent, even from within epsilon of 0
+        log.clear()
+        power.power = 0.05
+        io.flush()
+        power.power = 0.0
+        io.flush()
+        assertEquals(listOf("power 0.05", "power 0.0"), log)
+    }
+
+    @Test
+    fun dropsPositionWritesWithinEpsilon() {
+        val io = HardwareIO(HardwareMap())
+        io.positionEpsilon = 0.01
+        val position = io.position(Arm())
+
+        position.position = 0.3
+        io.flush()
+        position.position = 0.305
+        io.flush()
+        position.position = 0.32
+        io.flush()
+        assertEquals(listOf("position 0.3", "position 0.32"), log)
+
+        // the epsilon is from the last value sent, so small steps add up
+        position.position = 0.328
+        io.flush()
+        position.position = 0.336
+        io.flush()
+        assertEquals(listOf("position 0.3", "position 0.32", "position 0.336"), log)
+    }
+
+    @Test
+    fun invalidateSendsTheNextWrite() {
+        val io = HardwareIO(HardwareMap())
+        io.powerEpsilon = 0.1
+        val power = io.power(Motor())
+
+        power.power = 0.5
+        io.flush()
+        power.invalidate()
+        power.power = 0.5
+        io.flush()
+        assertEquals(listOf("power 0.5", "power 0.5"), log)
+    }
+}
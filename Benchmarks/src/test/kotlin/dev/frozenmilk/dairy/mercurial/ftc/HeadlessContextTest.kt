@@ -0,0 +1,73 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.DcMotorSimple
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import org.firstinspires.ftc.robotcore.external.Func
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class HeadlessContextTest {
+    private fun drive(context: HeadlessContext) = context.start {
+        val motor = hardwareMap.get(DcMotorSimple::class.java, "motor")
+        waitForStart()
+        schedule(loop(exec {
+            motor.power = if (gamepad1.a) 1.0 else 0.0
+            telemetry.addData("power", "%s", Func { motor.power })
+            telemetry.addData("state", "%s", state)
+            telemetry.update()
+        }))
+        dropToScheduler()
+    }
+
+    @Test
+    fun stepsAProgram() {
+        val context = HeadlessContext(OpModeMeta("drive"))
+        val motor = context.fake(DcMotorSimple::class.java, "motor")
+        drive(context)
+
+        context.step(5)
+        assertEquals(5L, context.ticks)
+        assertEquals(State.INIT, context.state)
+        assertEquals(null, context.telemetry("power"))
+
+        context.setState(State.LOOP)
+        context.step()
+        assertEquals(6L, context.ticks)
+        assertEquals(0.0, motor.power)
+        assertEquals("LOOP", context.telemetry("state"))
+
+        context.gamepad1.a = true
+        context.step()
+        assertEquals(1.0, motor.power)
+        assertEquals("1.0", context.telemetry("power"))
+
+        // time is virtual, every tick takes tickLength
+        val tickTime = context.tickTime
+        context.step()
+        assertEquals(tickTime + context.tickLength, context.tickTime)
+
+        context.requireTickTime(0.99, 0.05)
+        assertFailsWith<AssertionError> { context.requireTickTime(1.0, 0.0) }
+
+        context.stop()
+        assertTrue(context.isFinished)
+    }
+
+    @Test
+    fun rethrowsFailures() {
+        val context = HeadlessContext(OpModeMeta("fails"))
+        assertFailsWith<IllegalStateException> {
+            context.start {
+                waitForStart()
+                throw IllegalArgumentException("failed")
+            }
+            context.setState(State.LOOP)
+            context.step()
+        }
+        assertTrue(context.isFinished)
+    }
+}
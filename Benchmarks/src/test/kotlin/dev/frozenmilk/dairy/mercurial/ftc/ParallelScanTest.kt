@@ -0,0 +1,86 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ParallelScanTest {
+    private fun scan(vararg classes: Class<*>) = ParallelScan.start(
+        javaClass.classLoader,
+        classes.map { it.name },
+        2,
+        TIMEOUT,
+    ) { true }
+
+    @Test
+    fun initialisesClasses() {
+        val scan = scan(Plain::class.java)
+        assertTrue(scan.await(Plain::class.java))
+        assertTrue(scan.await(String::class.java))
+    }
+
+    @Test
+    fun rethrowsInitialiserErrors() {
+        val scan = scan(Throws::class.java)
+        assertFailsWith<ExceptionInInitializerError> { scan.await(Throws::class.java) }
+    }
+
+    @Test
+    fun skipsEveryClassInADeadlock() {
+        // the pool is no bigger than the number of processors, and one thread cannot deadlock
+        if (Runtime.getRuntime().availableProcessors() < 2) return
+        // both threads are stuck in the cycle, so Later is never started by the pool
+        val scan = scan(CycleA::class.java, CycleB::class.java, Later::class.java)
+        assertFalse(scan.await(CycleA::class.java))
+        assertFalse(scan.await(CycleB::class.java))
+        assertTrue(scan.await(Later::class.java))
+        assertTrue(Later.initialised)
+    }
+
+    private object Plain {
+        @JvmField
+        val value = 1
+    }
+
+    private object Throws {
+        init {
+            throw IllegalStateException("failed")
+        }
+    }
+
+    private object Later {
+        @JvmField
+        val initialised = true
+    }
+
+    // each waits until both have started, then reads the other
+    private object CycleA {
+        @JvmField
+        val b: Any
+
+        init {
+            both.countDown()
+            both.await(1, TimeUnit.SECONDS)
+            b = CycleB
+        }
+    }
+
+    private object CycleB {
+        @JvmField
+        val a: Any
+
+        init {
+            both.countDown()
+            both.await(1, TimeUnit.SECONDS)
+            a = CycleA
+        }
+    }
+
+    private companion object {
+        const val TIMEOUT = 200L
+        val both = CountDownLatch(2)
+    }
+}
@@ -0,0 +1,68 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.io.File
+import java.net.URLClassLoader
+import java.nio.file.Files
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class ProgramIndexTest {
+    /**
+     * a loader over a directory that holds an index with [lines]
+     */
+    private fun indexed(parent: ClassLoader?, vararg lines: String): ClassLoader {
+        val dir = Files.createTempDirectory("index").toFile()
+        dir.deleteOnExit()
+        File(dir, ProgramIndex.PATH).apply {
+            parentFile.mkdirs()
+            writeText(lines.joinToString("\n"))
+            deleteOnExit()
+        }
+        return URLClassLoader(arrayOf(dir.toURI().toURL()), parent)
+    }
+
+    @Test
+    fun readsFingerprintsAndEntries() {
+        val index = ProgramIndex.of(indexed(
+            javaClass.classLoader,
+            "${Plain::class.java.name}\tF:0123456789abcdef\tR:drive\tP:registrar",
+            "${Unfingerprinted::class.java.name}\tR:auto",
+        ))
+
+        assertEquals("0123456789abcdef", index.fingerprint(Plain::class.java))
+        assertEquals(listOf(ProgramIndex.Kind.PROGRAM to "drive", ProgramIndex.Kind.REGISTRAR to "registrar"),
+            index[Plain::class.java]!!.map { it.kind to it.field })
+
+        assertNull(index.fingerprint(Unfingerprinted::class.java))
+        assertEquals(listOf(ProgramIndex.Kind.PROGRAM to "auto"), index[Unfingerprinted::class.java]!!.map { it.kind to it.field })
+    }
+
+    @Test
+    fun leavesOutTheIndexOfTheParent() {
+        val parent = indexed(null, "${Plain::class.java.name}\tF:0123456789abcdef\tR:drive")
+        val index = ProgramIndex.of(indexed(parent, "${Unfingerprinted::class.java.name}\tR:auto"))
+
+        assertNull(index[Plain::class.java])
+        assertNull(index.fingerprint(Plain::class.java))
+        assertEquals(listOf(ProgramIndex.Kind.PROGRAM to "auto"), index[Unfingerprinted::class.java]!!.map { it.kind to it.field })
+    }
+
+    @Test
+    fun cachesByFingerprint() {
+        val programs = listOf(ScanCache.Program("drive", OpModeMeta("drive")))
+        ScanCache[Cached::class.java, "0123456789abcdef"] = programs
+
+        assertSame(programs, ScanCache[Cached::class.java, "0123456789abcdef"])
+        assertNull(ScanCache[Cached::class.java, "fedcba9876543210"])
+
+        ScanCache[Cached::class.java, "fedcba9876543210"] = emptyList()
+        assertNull(ScanCache[Cached::class.java, "0123456789abcdef"])
+    }
+
+    private class Plain
+    private class Unfingerprinted
+    private class Cached
+}
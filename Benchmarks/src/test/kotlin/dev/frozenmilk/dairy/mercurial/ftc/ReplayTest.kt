@@ -0,0 +1,86 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.HardwareMap
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.io.File
+import java.lang.reflect.Proxy
+import java.util.function.DoubleSupplier
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ReplayTest {
+    private val file = File.createTempFile("inputs", ".bin").apply { deleteOnExit() }
+
+    /**
+     * records what it does each tick to [outputs], which only depends on its inputs
+     */
+    private fun Context.drive(outputs: MutableList<String>, distance: DoubleSupplier) {
+        recordInputs(file, "distance")
+        val sensor = sensor("distance", distance)
+        schedule(loop(exec {
+            val gamepad = gamepads.gamepad1
+            val power = if (gamepad.pressed(Button.A)) sensor.asDouble else gamepad.axis(Axis.LEFT_STICK_Y).toDouble()
+            outputs += "$ticks $tickTime $state $power"
+        }))
+        waitForStart()
+        dropToScheduler()
+    }
+
+    @Test
+    fun replaysTheSameOutputs() {
+        val recorded = ArrayList<String>()
+        var distance = 0.0
+        val context = HeadlessContext(OpModeMeta("drive"))
+        context.start { drive(recorded) { distance } }
+        context.gamepad1.a = true
+        repeat(3) {
+            distance += 0.25
+            context.step()
+        }
+        context.setState(State.LOOP)
+        context.gamepad1.a = false
+        context.gamepad1.left_stick_y = -0.5f
+        context.step(2)
+        context.advance(0.1)
+        context.gamepad1.a = true
+        distance = 2.0
+        context.step()
+        context.stop()
+
+        val bytes = file.readBytes()
+        val recording = file.inputStream().use { Recording.read(it) }
+        assertEquals(recorded.size, recording.size)
+
+        val replayed = ArrayList<String>()
+        ReplayContext(recording, OpModeMeta("drive"), HardwareMap(), telemetry()).run {
+            drive(replayed) { throw AssertionError("the sensor was read while replaying") }
+        }
+        assertContentEquals(recorded, replayed)
+        // replaying does not record over the recording
+        assertContentEquals(bytes.toList(), file.readBytes().toList())
+    }
+
+    @Test
+    fun rejectsOtherRecordings() {
+        HeadlessContext(OpModeMeta("lift")).run {
+            start {
+                recorder(file, "current")
+                waitForStart()
+            }
+            stop()
+        }
+        val recording = file.inputStream().use { Recording.read(it) }
+        assertFailsWith<IllegalArgumentException> {
+            ReplayContext(recording, OpModeMeta("lift"), HardwareMap(), telemetry())
+        }
+    }
+
+    private fun telemetry() = Proxy.newProxyInstance(Telemetry::class.java.classLoader, arrayOf(Telemetry::class.java)) { _, _, _ ->
+        throw UnsupportedOperationException()
+    } as Telemetry
+}
@@ -3,6 +3,8 @@ package org.firstinspires.ftc.teamcode.intermediate;
 import static dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec;
 import static dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop;
 
+import dev.frozenmilk.dairy.mercurial.ftc.Context;
+import dev.frozenmilk.dairy.mercurial.ftc.Handoff;
 import dev.frozenmilk.dairy.mercurial.ftc.Mercurial;
 
 @SuppressWarnings("unused")
@@ -49,4 +51,54 @@ public class AutoPipelines {
     // before running any code
 
     // this is a very safe way to customise and configure your teleop
+
+    // state can also be handed to the next stage through 'handoff'
+    // using a typed key, which should be declared once
+    public static final Handoff.Key<String> MESSAGE = new Handoff.Key<>("message");
+
+    // values are handed over as they are,
+    // so you could hand over the pose of your robot, or the positions of your mechanisms,
+    // and the teleop can carry on from them, rather than resetting them
+    private static final Mercurial.Program handoffTeleop = ctx -> {
+        String message = ctx.handoff().get(MESSAGE);
+        teleop(message == null ? "no message" : message).exec(ctx);
+    };
+
+    public static Mercurial.RegisterableProgram handoffAutonomous = Mercurial.pipelineAutonomous(ctx -> {
+        ctx.dropToScheduler();
+        ctx.handoff().set(MESSAGE, "from-auto");
+        return handoffTeleop;
+    });
+
+    // the teleop can also be set up while the auto is still running,
+    // which moves its hardware lookups and any other slow setup out of the transition
+    // the setup runs on another thread, so it is only given the hardwareMap, not the auto's context
+    public static Mercurial.RegisterableProgram preparedAutonomous = Mercurial.pipelineAutonomous(
+            "preparedAutonomous",
+            Context::dropToScheduler,
+            hardwareMap -> {
+                // look up hardware here
+                return teleop("from-prepared-auto");
+            }
+    );
+
+    // pipelines can also have more than two stages,
+    // each stage runs in its own temporary opmode once the last one finishes
+    // the temporary opmodes are all registered before the first stage runs,
+    // and are all removed once a stage stops without moving on to the next,
+    // or another opmode is picked
+    // a stage added with 'thenPrepared' is set up while the stage before it runs
+    public static Mercurial.RegisterableProgram stagedAutonomous = Mercurial.autonomous(
+            "stagedAutonomous",
+            Mercurial.pipeline(ctx -> {
+                        // calibrate
+                        ctx.dropToScheduler();
+                    })
+                    .then("auto", Context::dropToScheduler)
+                    .thenPrepared("teleop", hardwareMap -> {
+                        // look up hardware here
+                        return teleop("from-staged-auto");
+                    })
+                    .build()
+    );
 }
@@ -3,6 +3,7 @@ package org.firstinspires.ftc.teamcode.intermediate
 
 import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
 import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.ftc.Handoff
 import dev.frozenmilk.dairy.mercurial.ftc.Mercurial
 
 // Mercurial allows you to define a common program function
@@ -45,3 +46,52 @@ val autonomous = Mercurial.pipelineAutonomous {
 // before running any code
 
 // this is a very safe way to customise and configure your teleop
+
+// state can also be handed to the next stage through 'handoff'
+// using a typed key, which should be declared once
+val MESSAGE = Handoff.Key<String>("message")
+
+// values are handed over as they are,
+// so you could hand over the pose of your robot, or the positions of your mechanisms,
+// and the teleop can carry on from them, rather than resetting them
+val handoffTeleop = Mercurial.Program {
+    val message = handoff[MESSAGE] ?: "no-message"
+    teleop(message).run { exec() }
+}
+
+val handoffAutonomous = Mercurial.pipelineAutonomous {
+    dropToScheduler()
+    handoff[MESSAGE] = "from-auto"
+    handoffTeleop
+}
+
+// the teleop can also be set up while the auto is still running,
+// which moves its hardware lookups and any other slow setup out of the transition
+// the setup runs on another thread, so it is only given the hardwareMap, not the auto's context
+val preparedAutonomous = Mercurial.pipelineAutonomous(
+    "preparedAutonomous",
+    Mercurial.Program { dropToScheduler() },
+) { hardwareMap ->
+    // look up hardware here
+    teleop("from-prepared-auto")
+}
+
+// pipelines can also have more than two stages,
+// each stage runs in its own temporary opmode once the last one finishes
+// the temporary opmodes are all registered before the first stage runs,
+// and are all removed once a stage stops without moving on to the next,
+// or another opmode is picked
+// a stage added with 'thenPrepared' is set up while the stage before it runs
+val stagedAutonomous = Mercurial.autonomous(
+    "stagedAutonomous",
+    Mercurial.pipeline {
+        // calibrate
+        dropToScheduler()
+    }
+        .then("auto", Mercurial.Program { dropToScheduler() })
+        .thenPrepared("teleop") { hardwareMap ->
+            // look up hardware here
+            teleop("from-staged-auto")
+        }
+        .build(),
+)
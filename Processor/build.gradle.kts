@@ -0,0 +1,21 @@
+plugins {
+    `java-library`
+    `maven-publish`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+publishing {
+    publications {
+        register<MavenPublication>("release") {
+            groupId = "dev.frozenmilk.dairy"
+            artifactId = "MercurialFTC-Processor"
+            version = rootProject.version.toString()
+
+            from(components["java"])
+        }
+    }
+}
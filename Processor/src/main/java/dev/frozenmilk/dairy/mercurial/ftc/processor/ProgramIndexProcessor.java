@@ -0,0 +1,256 @@
+package dev.frozenmilk.dairy.mercurial.ftc.processor;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * writes an index of every class in the compilation,
+ * and their static ProgramRegistrar and public static RegisterableProgram fields
+ * <p>
+ * MercurialProgramScanner reads the index instead of reflecting over the classes in it
+ * <p>
+ * each line of the index is the binary name of a class,
+ * followed by a tab separated entry for each field, of the form {@code <kind>:<field>},
+ * where kind is {@code P} for a ProgramRegistrar, or {@code R} for a RegisterableProgram
+ * <p>
+ * the entries of a java class start with {@code F:<fingerprint>}, a hash of the source file that declares it,
+ * which MercurialProgramScanner uses to tell which classes are unchanged when Sloth reloads them,
+ * kotlin classes are only seen as stubs, without the initialisers that their programs are built in,
+ * so they are not fingerprinted
+ * <p>
+ * if the {@code mercurial.scanThreads} option is set,
+ * the number of threads to initialise the indexed classes with is written to {@link #SCAN_THREADS}
+ */
+public class ProgramIndexProcessor extends AbstractProcessor {
+	public static final String INDEX = "META-INF/dev.frozenmilk.dairy.mercurial.ftc/programs";
+	public static final String SCAN_THREADS = "META-INF/dev.frozenmilk.dairy.mercurial.ftc/scanThreads";
+	public static final String SCAN_THREADS_OPTION = "mercurial.scanThreads";
+	private static final String PROGRAM_REGISTRAR = "dev.frozenmilk.dairy.mercurial.ftc.Mercurial.ProgramRegistrar";
+	private static final String REGISTERABLE_PROGRAM = "dev.frozenmilk.dairy.mercurial.ftc.Mercurial.RegisterableProgram";
+	private static final String KOTLIN_METADATA = "kotlin.Metadata";
+
+	private final Map<String, String> index = new LinkedHashMap<>();
+	private final Map<CompilationUnitTree, String> fingerprints = new HashMap<>();
+	private Trees trees;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		try {
+			trees = Trees.instance(processingEnv);
+		}
+		catch (IllegalArgumentException e) {
+			// not javac, so the sources are not available
+			trees = null;
+		}
+	}
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton("*");
+	}
+
+	@Override
+	public Set<String> getSupportedOptions() {
+		return Collections.singleton(SCAN_THREADS_OPTION);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getRootElements()) {
+			if (element instanceof TypeElement) indexType((TypeElement) element);
+		}
+		if (roundEnv.processingOver()) {
+			writeIndex();
+			writeScanThreads();
+		}
+		return false;
+	}
+
+	private void indexType(TypeElement type) {
+		String name = processingEnv.getElementUtils().getBinaryName(type).toString();
+		StringBuilder entry = new StringBuilder(name);
+		boolean kotlin = isKotlin(type);
+		String fingerprint = kotlin ? null : fingerprint(type);
+		if (fingerprint != null) entry.append("\tF:").append(fingerprint);
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (enclosed instanceof TypeElement) {
+				indexType((TypeElement) enclosed);
+				continue;
+			}
+			if (enclosed.getKind() != ElementKind.FIELD || !enclosed.getModifiers().contains(Modifier.STATIC)) continue;
+			VariableElement field = (VariableElement) enclosed;
+			String fieldType = typeName(field.asType());
+			if (PROGRAM_REGISTRAR.equals(fieldType)) {
+				entry.append("\tP:").append(field.getSimpleName());
+			}
+			else if (REGISTERABLE_PROGRAM.equals(fieldType) && isPublic(type, field, kotlin)) {
+				entry.append("\tR:").append(field.getSimpleName());
+			}
+		}
+		index.put(name, entry.toString());
+	}
+
+	/**
+	 * a hash of the source file that declares a type, or null if it is not available
+	 */
+	private String fingerprint(TypeElement type) {
+		if (trees == null) return null;
+		TreePath path = trees.getPath(type);
+		if (path == null) return null;
+		CompilationUnitTree unit = path.getCompilationUnit();
+		if (fingerprints.containsKey(unit)) return fingerprints.get(unit);
+		String fingerprint;
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256")
+					.digest(unit.getSourceFile().getCharContent(true).toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 8; i++) hex.append(String.format("%02x", hash[i]));
+			fingerprint = hex.toString();
+		}
+		catch (IOException | NoSuchAlgorithmException e) {
+			fingerprint = null;
+		}
+		fingerprints.put(unit, fingerprint);
+		return fingerprint;
+	}
+
+	private static String typeName(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) return null;
+		return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+	}
+
+	private static boolean isKotlin(TypeElement type) {
+		return type.getAnnotationMirrors().stream()
+				.anyMatch(annotation -> KOTLIN_METADATA.equals(typeName(annotation.getAnnotationType())));
+	}
+
+	/**
+	 * a java field is public if it is declared public
+	 * <p>
+	 * a kotlin property is compiled to a private field, unless it is a {@code @JvmField},
+	 * so it is public if it has a public getter, either on the class, or on its companion object
+	 * <p>
+	 * a {@code @JvmField internal} property is compiled to a public field, so it is public here
+	 */
+	private static boolean isPublic(TypeElement type, VariableElement field, boolean kotlin) {
+		if (field.getModifiers().contains(Modifier.PUBLIC)) return true;
+		if (!kotlin) return false;
+		String getter = getterName(field.getSimpleName().toString());
+		if (hasPublicGetter(type, getter)) return true;
+		TypeElement companion = companion(type);
+		return companion != null && hasPublicGetter(companion, getter);
+	}
+
+	/**
+	 * the companion object of a type, the nested type that it holds the instance of in a static field of the same name
+	 */
+	private static TypeElement companion(TypeElement type) {
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (!(enclosed instanceof TypeElement)) continue;
+			TypeElement nested = (TypeElement) enclosed;
+			for (Element member : type.getEnclosedElements()) {
+				if (member.getKind() == ElementKind.FIELD
+						&& member.getModifiers().contains(Modifier.STATIC)
+						&& member.getSimpleName().contentEquals(nested.getSimpleName())
+						&& nested.getQualifiedName().contentEquals(String.valueOf(typeName(member.asType())))) {
+					return nested;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasPublicGetter(TypeElement type, String getter) {
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (enclosed.getKind() == ElementKind.METHOD
+					&& enclosed.getModifiers().contains(Modifier.PUBLIC)
+					&& enclosed.getSimpleName().contentEquals(getter)
+					&& ((ExecutableElement) enclosed).getParameters().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * the name kotlin gives to the getter of a property
+	 */
+	static String getterName(String property) {
+		if (property.startsWith("is") && property.length() > 2 && !Character.isLowerCase(property.charAt(2))) {
+			return property;
+		}
+		return "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+	}
+
+	private void writeIndex() {
+		if (index.isEmpty()) return;
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+			try (Writer writer = file.openWriter()) {
+				for (String entry : index.values()) {
+					writer.write(entry);
+					writer.write('\n');
+				}
+			}
+		}
+		catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "unable to write the Mercurial program index: " + e.getMessage());
+		}
+	}
+
+	private void writeScanThreads() {
+		String threads = processingEnv.getOptions().get(SCAN_THREADS_OPTION);
+		if (threads == null) return;
+		try {
+			Integer.parseInt(threads.trim());
+		}
+		catch (NumberFormatException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, SCAN_THREADS_OPTION + " must be a number of threads, not: " + threads);
+			return;
+		}
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SCAN_THREADS);
+			try (Writer writer = file.openWriter()) {
+				writer.write(threads.trim());
+			}
+		}
+		catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "unable to write the Mercurial scan threads: " + e.getMessage());
+		}
+	}
+}
@@ -13,6 +13,7 @@ ftc {
 
     sdk {
         RobotCore
+        Hardware
         FtcCommon {
             configurationNames += "testImplementation"
         }
@@ -26,7 +27,6 @@ repositories {
 dependencies {
     api("dev.frozenmilk.sinister:Sloth:0.2.4")
     api("dev.frozenmilk.dairy:Mercurial:2.0.0-beta8")
-    api("org.jetbrains.kotlin:kotlin-reflect")
 }
 
 meta {
@@ -6,3 +6,5 @@ pluginManagement {
 		maven("https://repo.dairy.foundation/releases")
 	}
 }
+
+include(":Processor")
@@ -0,0 +1,126 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * runs slow output, like sending telemetry frames and writing logs, on a background thread,
+ * see [Context.writeInBackground]
+ *
+ * tasks are passed to the thread through a lock-free single producer, single consumer queue,
+ * so [submit] must only be called from the opmode thread
+ *
+ * if the queue is full, the task is dropped rather than waiting for space,
+ * so a slow driver station link or slow storage can never stall a tick
+ */
+class BackgroundWriter internal constructor(capacity: Int) {
+    private val queue = SpscQueue<Runnable>(capacity)
+    private val thread = Thread(::drain, "mercurial-writer").apply { isDaemon = true }
+
+    @Volatile
+    private var waiting = false
+
+    @Volatile
+    private var closed = false
+
+    /**
+     * the number of tasks dropped because the queue was full
+     */
+    @get:JvmName("dropped")
+    var dropped = 0L
+        private set
+
+    /**
+     * the number of tasks that threw
+     */
+    @get:JvmName("failed")
+    @Volatile
+    var failed = 0L
+        private set
+
+    init {
+        thread.start()
+    }
+
+    /**
+     * queues [task] to be run on the background thread
+     *
+     * @return false if the queue was full, and [task] was dropped
+     */
+    fun submit(task: Runnable): Boolean {
+        if (!queue.offer(task)) {
+            dropped++
+            return false
+        }
+        if (waiting) LockSupport.unpark(thread)
+        return true
+    }
+
+    private fun drain() {
+        while (true) {
+            val task = queue.poll()
+            if (task != null) {
+                try {
+                    task.run()
+                } catch (e: Throwable) {
+                    failed++
+                }
+                continue
+            }
+            if (closed) return
+            waiting = true
+            if (queue.isEmpty() && !closed) LockSupport.park(this)
+            waiting = false
+        }
+    }
+
+    /**
+     * runs the tasks that are still queued, waiting at most [CLOSE_TIMEOUT] milliseconds for them
+     */
+    internal fun close() {
+        closed = true
+        LockSupport.unpark(thread)
+        thread.join(CLOSE_TIMEOUT)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+        const val CLOSE_TIMEOUT = 1000L
+    }
+}
+
+/**
+ * a bounded lock-free queue, for one producer thread and one consumer thread
+ */
+internal class SpscQueue<T : Any>(capacity: Int) {
+    private val mask = Integer.highestOneBit((capacity - 1).coerceAtLeast(1)) * 2 - 1
+    private val buffer = AtomicReferenceArray<T?>(mask + 1)
+
+    // only written by the consumer
+    private val head = AtomicLong()
+
+    // only written by the producer
+    private val tail = AtomicLong()
+
+    fun offer(value: T): Boolean {
+        val tail = tail.get()
+        if (tail - head.get() > mask) return false
+        buffer.lazySet((tail and mask.toLong()).toInt(), value)
+        // a full fence, so that the consumer either sees this value, or is seen to be waiting
+        this.tail.set(tail + 1)
+        return true
+    }
+
+    fun poll(): T? {
+        val head = head.get()
+        if (head == tail.get()) return null
+        val i = (head and mask.toLong()).toInt()
+        val value = buffer.get(i)
+        buffer.lazySet(i, null)
+        this.head.lazySet(head + 1)
+        return value
+    }
+
+    fun isEmpty() = head.get() == tail.get()
+}
@@ -0,0 +1,202 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.continuations.Fiber
+import dev.frozenmilk.dairy.mercurial.continuations.IntoContinuation
+import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import java.util.function.BooleanSupplier
+
+/**
+ * the binding table used by [Context.bindExec], [Context.bindSpawn] and [Context.bindWhileTrue]
+ *
+ * all bindings share a single [Fiber], which samples every condition in one pass,
+ * and then applies the resulting cancels and spawns together
+ *
+ * bindings made on a [Button] of a [GamepadState] are event driven:
+ * they are indexed by button, and only sampled in ticks where their button changed,
+ * so ticks where nothing was pressed or released cost nothing for them
+ */
+class Bindings internal constructor(private val scheduler: Scheduler) {
+    enum class Mode {
+        /**
+         * spawn when the condition is true, cancelling the previous spawn if it is still running
+         */
+        EXEC,
+
+        /**
+         * spawn when the condition is true, leaving previous spawns running
+         */
+        SPAWN,
+
+        /**
+         * spawn when the condition becomes true, cancel when it becomes false
+         */
+        WHILE_TRUE,
+    }
+
+    class Binding internal constructor(
+        @get:JvmName("mode") val mode: Mode,
+        private val cond: BooleanSupplier,
+        private val spawn: () -> Fiber,
+    ) {
+        internal var index = -1
+        internal var bucket: ArrayList<Binding>? = null
+        private var fiber: Fiber? = null
+        private var triggered = false
+
+        @get:JvmName("isBound")
+        val isBound
+            get() = index != -1 || bucket != null
+
+        internal fun sample() {
+            triggered = cond.asBoolean
+        }
+
+        internal fun cancels() {
+            val fiber = fiber ?: return
+            when (mode) {
+                Mode.EXEC -> if (triggered) {
+                    Fiber.CANCEL(fiber)
+                    this.fiber = null
+                }
+                Mode.SPAWN -> {}
+                Mode.WHILE_TRUE -> if (!triggered) {
+                    Fiber.CANCEL(fiber)
+                    this.fiber = null
+                }
+            }
+        }
+
+        internal fun spawns() {
+            if (!triggered) return
+            when (mode) {
+                Mode.EXEC -> fiber = spawn()
+                Mode.SPAWN -> spawn()
+                Mode.WHILE_TRUE -> if (fiber == null) fiber = spawn()
+            }
+        }
+    }
+
+    private class ButtonTable(val gamepad: GamepadState) {
+        val buckets = Array(BUTTONS) { ArrayList<Binding>() }
+    }
+
+    private var bindings = arrayOfNulls<Binding>(8)
+    private var polled = 0
+    private val buttonTables = ArrayList<ButtonTable>(2)
+    private var active = arrayOfNulls<Binding>(8)
+    private var dispatcher: Fiber? = null
+
+    /**
+     * the number of currently bound bindings
+     */
+    @get:JvmName("size")
+    var size = 0
+        private set
+
+    /**
+     * adds a new binding to the table, starting the dispatcher if it isn't already running
+     *
+     * [cond] is polled every tick
+     */
+    fun bind(
+        mode: Mode,
+        cond: BooleanSupplier,
+        k: IntoContinuation,
+    ): Binding {
+        val binding = Binding(mode, cond, spawner(k))
+        if (polled == bindings.size) bindings = bindings.copyOf(polled * 2)
+        binding.index = polled
+        bindings[polled++] = binding
+        return added(binding)
+    }
+
+    /**
+     * adds a new binding to the table, starting the dispatcher if it isn't already running
+     *
+     * the binding is only sampled in ticks where [button] on [gamepad] changed,
+     * so [Mode.EXEC] and [Mode.SPAWN] spawn when [button] is pressed,
+     * and [Mode.WHILE_TRUE] runs while [button] is held
+     */
+    fun bind(
+        mode: Mode,
+        gamepad: GamepadState,
+        button: Button,
+        k: IntoContinuation,
+    ): Binding {
+        val binding = Binding(mode, { gamepad.pressed(button) }, spawner(k))
+        val table = buttonTables.firstOrNull { it.gamepad === gamepad } ?: ButtonTable(gamepad).also { buttonTables.add(it) }
+        val bucket = table.buckets[button.ordinal]
+        binding.bucket = bucket
+        bucket.add(binding)
+        return added(binding)
+    }
+
+    private fun spawner(k: IntoContinuation): () -> Fiber {
+        val k = k.intoContinuation()
+        return { scheduler.schedule(k) }
+    }
+
+    private fun added(binding: Binding): Binding {
+        size++
+        if (dispatcher == null) dispatcher = scheduler.schedule(loop(exec { dispatch() }).intoContinuation())
+        return binding
+    }
+
+    /**
+     * removes [binding] from the table
+     *
+     * any [Fiber] it previously spawned will continue to run
+     */
+    fun unbind(binding: Binding) {
+        val bucket = binding.bucket
+        if (bucket != null) {
+            if (!bucket.remove(binding)) return
+            binding.bucket = null
+            size--
+            return
+        }
+        val index = binding.index
+        if (index == -1 || bindings[index] !== binding) return
+        val last = bindings[--polled]!!
+        bindings[index] = last
+        last.index = index
+        bindings[polled] = null
+        binding.index = -1
+        size--
+    }
+
+    private fun activate(n: Int, binding: Binding): Int {
+        if (n == active.size) active = active.copyOf(n * 2)
+        active[n] = binding
+        return n + 1
+    }
+
+    private fun dispatch() {
+        var n = 0
+        val bindings = bindings
+        for (i in 0 until polled) n = activate(n, bindings[i]!!)
+        for (t in 0 until buttonTables.size) {
+            val table = buttonTables[t]
+            var changed = table.gamepad.changed and BUTTONS_MASK
+            while (changed != 0) {
+                val bucket = table.buckets[Integer.numberOfTrailingZeros(changed)]
+                changed = changed and (changed - 1)
+                for (i in 0 until bucket.size) n = activate(n, bucket[i])
+            }
+        }
+        val active = active
+        for (i in 0 until n) active[i]!!.sample()
+        for (i in 0 until n) active[i]!!.cancels()
+        for (i in 0 until n) {
+            active[i]!!.spawns()
+            active[i] = null
+        }
+    }
+
+    private companion object {
+        val BUTTONS = Button.values().size
+        val BUTTONS_MASK = (1 shl BUTTONS) - 1
+    }
+}
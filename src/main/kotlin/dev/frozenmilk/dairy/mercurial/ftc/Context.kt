@@ -3,15 +3,16 @@ package dev.frozenmilk.dairy.mercurial.ftc
 import com.qualcomm.robotcore.hardware.Gamepad
 import com.qualcomm.robotcore.hardware.HardwareMap
 import dev.frozenmilk.dairy.mercurial.continuations.Continuations
-import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
-import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
-import dev.frozenmilk.dairy.mercurial.continuations.Continuations.scope
 import dev.frozenmilk.dairy.mercurial.continuations.Fiber
 import dev.frozenmilk.dairy.mercurial.continuations.IntoContinuation
 import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import dev.frozenmilk.sinister.util.log.Logger
 import org.firstinspires.ftc.robotcore.external.Telemetry
 import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.io.File
+import java.util.concurrent.locks.LockSupport
 import java.util.function.BooleanSupplier
+import java.util.function.DoubleSupplier
 import java.util.function.Supplier
 
 open class Context(
@@ -23,9 +24,23 @@ open class Context(
     @get:JvmName("gamepad1") val gamepad1: Gamepad,
     @get:JvmName("gamepad2") val gamepad2: Gamepad,
 ) {
+    private var snapshotState = false
+    private var stateSnapshot: State? = null
+
     @get:JvmName("state")
     val state
-        get() = stateSupplier.get()
+        get() = stateSnapshot ?: stateSupplier.get()
+
+    /**
+     * when enabled, [state] is sampled once at the start of each scheduler tick,
+     * so every [Fiber] stepped in that tick sees the same [State]
+     *
+     * outside of the scheduler, [state] is always read live
+     */
+    fun snapshotState(enabled: Boolean) {
+        snapshotState = enabled
+        if (!enabled) stateSnapshot = null
+    }
 
     //
     // flow
@@ -46,16 +61,358 @@ open class Context(
     /**
      * puts the opmode into scheduler mode until start is pressed
      */
-    fun waitForStart() = scheduler.start(::inInit)
+    fun waitForStart() = runScheduler { inInit }
 
     /**
      * puts the opmode into scheduler mode until it stops
      */
     fun dropToScheduler() {
-        scheduler.start(::isActive)
+        runScheduler { isActive }
         scheduler.shutdown()
     }
 
+    //
+    // ticks
+    //
+
+    private val beginTickHooks = ArrayList<Runnable>()
+    private val endTickHooks = ArrayList<Runnable>()
+    private var ticking = false
+
+    /**
+     * the number of scheduler ticks that have been started
+     */
+    @get:JvmName("ticks")
+    var ticks = 0L
+        private set
+
+    /**
+     * the time at the start of the current tick, in nanoseconds, see [nanoTime]
+     *
+     * sampled once per tick, so everything run in a tick can share it,
+     * 0 until the first tick starts
+     */
+    @get:JvmName("tickTime")
+    var tickTime = 0L
+        private set
+
+    /**
+     * the time source for [tickTime], [System.nanoTime] by default
+     */
+    protected open fun nanoTime() = System.nanoTime()
+
+    /**
+     * waits for [nanos] nanoseconds of [nanoTime] to pass, used by fixed rate ticks
+     */
+    protected open fun park(nanos: Long) = LockSupport.parkNanos(nanos)
+
+    /**
+     * called between ticks, before the next tick waits, samples [state] or runs any hooks
+     *
+     * a context that is driven by recorded inputs advances them here, see [ReplayContext]
+     */
+    protected open fun beforeTick() {}
+
+    /**
+     * the period between the start of each tick in nanoseconds, see [tickRate],
+     * 0 if ticks are run as fast as possible
+     */
+    @get:JvmName("tickPeriod")
+    var tickPeriod = 0L
+        private set
+
+    /**
+     * the number of ticks that started late, because the tick before ran past the end of its period
+     */
+    @get:JvmName("overruns")
+    var overruns = 0L
+        private set
+
+    private var nextTick = Long.MIN_VALUE
+
+    /**
+     * runs ticks at a fixed rate of [hz], rather than as fast as possible,
+     * 0 returns to running them as fast as possible
+     *
+     * each tick is started a whole period after the start of the last one was due,
+     * so the rate does not drift when ticks are delayed
+     *
+     * when a tick overruns it is counted in [overruns], and starts immediately,
+     * if it is late by a whole period or more,
+     * the ticks that were missed are skipped, rather than run back to back
+     */
+    fun tickRate(hz: Double) {
+        if (hz < 0.0 || hz.isNaN()) throw IllegalArgumentException("tick rate must be a non-negative number of hz, not $hz")
+        tickPeriod = if (hz == 0.0) 0L else (1e9 / hz).toLong()
+        nextTick = Long.MIN_VALUE
+    }
+
+    private fun waitForTick() {
+        val now = nanoTime()
+        if (nextTick == Long.MIN_VALUE) nextTick = now
+        else if (now < nextTick) {
+            var remaining = nextTick - now
+            while (remaining > 0) {
+                park(remaining)
+                remaining = nextTick - nanoTime()
+            }
+        }
+        else if (now > nextTick) {
+            overruns++
+            if (now - nextTick >= tickPeriod) nextTick = now
+        }
+        nextTick += tickPeriod
+    }
+
+    /**
+     * [hook] will be run at the start of every scheduler tick, before any [Fiber] is stepped
+     */
+    fun onBeginTick(hook: Runnable) {
+        beginTickHooks.add(hook)
+    }
+
+    /**
+     * [hook] will be run at the end of every scheduler tick, after every [Fiber] has been stepped
+     */
+    fun onEndTick(hook: Runnable) {
+        endTickHooks.add(hook)
+    }
+
+    private val shutdownHooks = ArrayList<Runnable>()
+
+    /**
+     * [hook] will be run once the program has finished, even if it finished by throwing
+     */
+    fun onShutdown(hook: Runnable) {
+        shutdownHooks.add(hook)
+    }
+
+    internal fun shutdown() {
+        try {
+            runHooks(shutdownHooks)
+        } finally {
+            // closed last, so that the shutdown hooks can still queue their final writes
+            if (writerDelegate.isInitialized()) writer.close()
+        }
+    }
+
+    private fun runHooks(hooks: ArrayList<Runnable>) {
+        for (i in 0 until hooks.size) hooks[i].run()
+    }
+
+    /**
+     * runs the scheduler while [cond] is true
+     *
+     * the scheduler evaluates its condition once between each tick,
+     * which is where the tick hooks are run, and where fixed rate ticks wait
+     */
+    private inline fun runScheduler(crossinline cond: () -> Boolean) {
+        // the first tick of each run starts immediately
+        nextTick = Long.MIN_VALUE
+        try {
+            scheduler.start {
+                if (ticking) runHooks(endTickHooks)
+                beforeTick()
+                if (tickPeriod != 0L) waitForTick()
+                if (snapshotState) stateSnapshot = stateSupplier.get()
+                ticking = cond()
+                if (ticking) {
+                    tickTime = nanoTime()
+                    ticks++
+                    runHooks(beginTickHooks)
+                }
+                ticking
+            }
+        } finally {
+            if (ticking) runHooks(endTickHooks)
+            ticking = false
+            stateSnapshot = null
+        }
+    }
+
+    /**
+     * loop time instrumentation, see [Instrumentation]
+     *
+     * nothing is measured until this is first accessed
+     */
+    @get:JvmName("instrumentation")
+    val instrumentation by lazy {
+        Instrumentation(Instrumentation.DEFAULT_CAPACITY).also { instrumentation ->
+            onBeginTick { instrumentation.beginTick() }
+            onEndTick { instrumentation.endTick() }
+        }
+    }
+
+    /**
+     * rate limited telemetry, see [TelemetryLines]
+     *
+     * once this is accessed, [Telemetry.update] is called at the end of a tick once per [TelemetryLines.interval],
+     * so there is no need to call it yourself
+     */
+    @get:JvmName("lines")
+    val lines by lazy {
+        TelemetryLines(telemetry).also { lines ->
+            onEndTick { lines.endTick(tickTime) }
+        }
+    }
+
+    private val writerDelegate = lazy { BackgroundWriter(BackgroundWriter.DEFAULT_CAPACITY) }
+
+    /**
+     * the background thread used by [writeInBackground] and [recorder], started on first access,
+     * and stopped once the program has finished, after it has written what is still queued
+     */
+    @get:JvmName("writer")
+    val writer by writerDelegate
+
+    private var logInBackground = false
+
+    /**
+     * when enabled, [lines] frames are sent and [log] records are written by [writer],
+     * so that a tick only has to queue them
+     *
+     * telemetry must then only be sent through [lines],
+     * as the [Telemetry] is updated from the background thread
+     */
+    fun writeInBackground(enabled: Boolean) {
+        lines.writer = if (enabled) writer else null
+        logInBackground = enabled
+    }
+
+    /**
+     * writes [message] to the log, see [writeInBackground]
+     *
+     * in the background, the record is dropped if the [writer] has fallen too far behind,
+     * see [BackgroundWriter.dropped]
+     */
+    fun log(tag: String, message: String) {
+        if (logInBackground) writer.submit { Logger.d(tag, message) }
+        else Logger.d(tag, message)
+    }
+
+    /**
+     * returns a new [Recorder] for [channels], which records them to [file] at the end of every tick
+     *
+     * ```kotlin
+     * val recorder = recorder(File(dir, "lift.bin"), "current", "position")
+     * val current = recorder.channel("current")
+     * schedule(loop(exec { current.set(lift.current) }))
+     * ```
+     */
+    open fun recorder(file: File, vararg channels: String): Recorder = Recorder(
+        file,
+        channels.toList(),
+        writer,
+        Recorder.DEFAULT_CHUNK_RECORDS,
+        Recorder.DEFAULT_CHUNKS,
+    ).also { recorder ->
+        onEndTick { recorder.record(tickTime) }
+        onShutdown { recorder.close() }
+    }
+
+    private var inputs: Recorder? = null
+
+    /**
+     * returns a new [Recorder] of everything a [ReplayContext] needs to replay this program:
+     * the [state] and both [gamepads] each tick, and the [sensor]s called [sensors]
+     *
+     * call this before creating the [sensor]s it should record
+     */
+    open fun recordInputs(file: File, vararg sensors: String): Recorder {
+        val gamepads = gamepads
+        val recorder = recorder(file, *INPUT_CHANNELS, *sensors)
+        val channels = recorder.channels
+        // run after the gamepads are updated
+        onBeginTick {
+            channels[0].set(state.ordinal.toDouble())
+            record(channels, 1, gamepads.gamepad1)
+            record(channels, 2 + INPUT_AXES.size, gamepads.gamepad2)
+        }
+        inputs = recorder
+        return recorder
+    }
+
+    private fun record(channels: List<Recorder.Channel>, offset: Int, gamepad: GamepadState) {
+        channels[offset].set(gamepad.buttons.toDouble())
+        for (i in INPUT_AXES.indices) channels[offset + 1 + i].set(gamepad.axis(INPUT_AXES[i]).toDouble())
+    }
+
+    /**
+     * returns a supplier that reads a sensor with [read]
+     *
+     * if inputs are being recorded ([recordInputs]) each value read is recorded as [name],
+     * and a [ReplayContext] returns the recorded values instead
+     *
+     * @throws IllegalArgumentException if inputs are being recorded, but not for [name]
+     */
+    open fun sensor(name: String, read: DoubleSupplier): DoubleSupplier {
+        val channel = inputs?.channel(name) ?: return read
+        return DoubleSupplier { read.asDouble.also { channel.set(it) } }
+    }
+
+    //
+    // pipelines
+    //
+
+    internal var inheritedHandoff: Handoff? = null
+
+    /**
+     * state handed over between the stages of a pipeline, see [Handoff]
+     *
+     * if this program was pipelined from another, it is the same [Handoff] that the last stage wrote to,
+     * otherwise it starts empty
+     */
+    @get:JvmName("handoff")
+    val handoff by lazy { inheritedHandoff ?: Handoff() }
+
+    //
+    // hardware
+    //
+
+    internal var inheritedDevices: Devices? = null
+
+    /**
+     * the typed device registry, see [Devices]
+     *
+     * if this program was pipelined from another, and they share a [HardwareMap],
+     * the registry (and all of its resolved devices) is carried over
+     */
+    @get:JvmName("devices")
+    val devices by lazy {
+        inheritedDevices?.takeIf { it.hardwareMap === hardwareMap } ?: Devices(hardwareMap)
+    }
+
+    /**
+     * tick-phased hardware io, see [HardwareIO]
+     *
+     * the first access puts all lynx modules into manual bulk caching,
+     * their previous caching modes are restored when the program finishes
+     */
+    @get:JvmName("hardwareIO")
+    val hardwareIO by lazy {
+        HardwareIO(hardwareMap).also { io ->
+            onBeginTick { io.clearBulkCache() }
+            onEndTick { io.flush() }
+            onShutdown { io.close() }
+        }
+    }
+
+    //
+    // gamepads
+    //
+
+    /**
+     * per-tick snapshots of [gamepad1] and [gamepad2], see [Gamepads]
+     *
+     * the first access starts taking the snapshots, at the start of each tick
+     */
+    @get:JvmName("gamepads")
+    val gamepads by lazy {
+        Gamepads(gamepad1, gamepad2).also { gamepads ->
+            onBeginTick { gamepads.update() }
+        }
+    }
+
     //
     // binding helpers
     //
@@ -79,9 +436,40 @@ open class Context(
     }
 
     /**
-     * adds a rising edge filter to [cond], with a 10ms debounce
+     * adds a rising edge filter to [cond], with a 1ms debounce, see [Filter.RisingEdge]
      */
-    fun risingEdge(cond: BooleanSupplier) = risingEdge(Continuations.Clock.Standard, cond)
+    fun risingEdge(cond: BooleanSupplier): BooleanSupplier = Filter.RisingEdge(this, cond, Filter.DEFAULT_DEBOUNCE)
+
+    /**
+     * adds a rising edge filter to [cond], with a [debounce] in seconds, see [Filter.RisingEdge]
+     */
+    fun risingEdge(debounce: Double, cond: BooleanSupplier): BooleanSupplier = Filter.RisingEdge(this, cond, Filter.seconds(debounce))
+
+    /**
+     * adds a falling edge filter to [cond], with a 1ms debounce, see [Filter.FallingEdge]
+     */
+    fun fallingEdge(cond: BooleanSupplier): BooleanSupplier = Filter.FallingEdge(this, cond, Filter.DEFAULT_DEBOUNCE)
+
+    /**
+     * adds a falling edge filter to [cond], with a [debounce] in seconds, see [Filter.FallingEdge]
+     */
+    fun fallingEdge(debounce: Double, cond: BooleanSupplier): BooleanSupplier = Filter.FallingEdge(this, cond, Filter.seconds(debounce))
+
+    /**
+     * returns a supplier that flips each time [cond] becomes true, with a 1ms debounce, see [Filter.Toggle]
+     */
+    fun toggle(cond: BooleanSupplier): BooleanSupplier = Filter.Toggle(this, cond, Filter.DEFAULT_DEBOUNCE)
+
+    /**
+     * debounces [cond] by [debounce] seconds, see [Filter.Debounce]
+     */
+    fun debounce(debounce: Double, cond: BooleanSupplier): BooleanSupplier = Filter.Debounce(this, cond, Filter.seconds(debounce))
+
+    /**
+     * returns a supplier that is true while [cond] has been true for at least [duration] seconds,
+     * with a 1ms debounce, see [Filter.Hold]
+     */
+    fun hold(duration: Double, cond: BooleanSupplier): BooleanSupplier = Filter.Hold(this, cond, Filter.DEFAULT_DEBOUNCE, Filter.seconds(duration))
 
     /**
      * immediately schedules [k]
@@ -89,7 +477,15 @@ open class Context(
     fun schedule(k: IntoContinuation) = scheduler.schedule(k.intoContinuation())
 
     /**
-     * WARNING: do not call this in a loop, as it sets up a process that runs until the opmode ends
+     * the binding table shared by [bindExec], [bindSpawn] and [bindWhileTrue]
+     *
+     * all bindings are polled by a single [Fiber], which is started by the first binding
+     */
+    @get:JvmName("bindings")
+    val bindings by lazy { Bindings(scheduler) }
+
+    /**
+     * WARNING: do not call this in a loop, as it sets up a binding that runs until the opmode ends
      *
      * binds [k] to be spawned when [cond] returns true
      *
@@ -98,23 +494,7 @@ open class Context(
     fun bindExec(
         cond: BooleanSupplier,
         k: IntoContinuation,
-    ) = run {
-        val k = k.intoContinuation()
-        scheduler.schedule(
-            scope {
-                val fiber = variable<Fiber?> { null }
-                loop(exec {
-                    if (cond.asBoolean) fiber.map { fiber ->
-                        if (fiber == null) scheduler.schedule(k)
-                        else {
-                            Fiber.CANCEL(fiber)
-                            scheduler.schedule(k)
-                        }
-                    }
-                })
-            }.intoContinuation()
-        )
-    }
+    ) = bindings.bind(Bindings.Mode.EXEC, cond, k)
 
     /**
      * binds [k] to be spawned when [cond] returns true
@@ -125,14 +505,7 @@ open class Context(
     fun bindSpawn(
         cond: BooleanSupplier,
         k: IntoContinuation,
-    ) = run {
-        val k = k.intoContinuation()
-        scheduler.schedule(
-            loop(exec {
-                if (cond.asBoolean) scheduler.schedule(k)
-            }).intoContinuation()
-        )
-    }
+    ) = bindings.bind(Bindings.Mode.SPAWN, cond, k)
 
     /**
      * binds [k] to be spawned whenever [cond] returns true
@@ -142,21 +515,71 @@ open class Context(
     fun bindWhileTrue(
         cond: BooleanSupplier,
         k: IntoContinuation,
-    ) = run {
-        val k = k.intoContinuation()
-        scheduler.schedule(
-            scope {
-                val fiber = variable<Fiber?> { null }
-                loop(exec {
-                    fiber.map { fiber ->
-                        if (cond.asBoolean && fiber == null) scheduler.schedule(k)
-                        else {
-                            if (fiber != null) Fiber.CANCEL(fiber)
-                            null
-                        }
-                    }
-                })
-            }.intoContinuation()
-        )
-    }
-}
\ No newline at end of file
+    ) = bindings.bind(Bindings.Mode.WHILE_TRUE, cond, k)
+
+    //
+    // button bindings
+    //
+
+    /**
+     * binds [k] to be spawned when [button] on [gamepad] is pressed
+     *
+     * unlike a condition, [button] is only checked in ticks where it changed, see [Bindings]
+     *
+     * if [k] is still running, the previously spawned [Fiber] will be cancelled
+     */
+    fun bindExec(
+        gamepad: GamepadState,
+        button: Button,
+        k: IntoContinuation,
+    ) = bindings.bind(Bindings.Mode.EXEC, gamepad, button, k)
+
+    /**
+     * binds [k] to be spawned when [button] on [gamepad] is pressed
+     *
+     * if [k] is still running, the previously spawned [Fiber] will not cancelled,
+     * instead, another process will be spawned
+     */
+    fun bindSpawn(
+        gamepad: GamepadState,
+        button: Button,
+        k: IntoContinuation,
+    ) = bindings.bind(Bindings.Mode.SPAWN, gamepad, button, k)
+
+    /**
+     * binds [k] to be spawned when [button] on [gamepad] is pressed
+     *
+     * when [button] is released, cancels the running [Fiber]
+     */
+    fun bindWhileTrue(
+        gamepad: GamepadState,
+        button: Button,
+        k: IntoContinuation,
+    ) = bindings.bind(Bindings.Mode.WHILE_TRUE, gamepad, button, k)
+
+    //
+    // rate groups
+    //
+
+    /**
+     * the rate groups shared by [everyTicks] and [every]
+     *
+     * all groups are run by a single [Fiber], which is started by the first group
+     */
+    @get:JvmName("rateGroups")
+    val rateGroups by lazy { RateGroups(this) }
+
+    /**
+     * WARNING: do not call this in a loop, as it sets up a group that runs until the opmode ends
+     *
+     * runs [task] once every [ticks] ticks, see [RateGroups]
+     */
+    fun everyTicks(ticks: Int, task: Runnable) = rateGroups.everyTicks(ticks).add(task)
+
+    /**
+     * WARNING: do not call this in a loop, as it sets up a group that runs until the opmode ends
+     *
+     * runs [task] once every [seconds], see [RateGroups]
+     */
+    fun every(seconds: Double, task: Runnable) = rateGroups.every(Filter.seconds(seconds)).add(task)
+}
@@ -0,0 +1,50 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.HardwareMap
+
+/**
+ * a typed device registry for a [Context]
+ *
+ * each device is looked up in the [HardwareMap] once, and the handle is cached
+ * for the rest of the program, and for any program it is pipelined into
+ *
+ * resolve devices with [require] while in init, so that bad names fail immediately,
+ * rather than in the middle of a loop
+ */
+class Devices internal constructor(@get:JvmName("hardwareMap") val hardwareMap: HardwareMap) {
+    private val devices = HashMap<String, Any>()
+
+    /**
+     * returns the device called [name], looking it up in the [HardwareMap] the first time it is requested
+     *
+     * @throws IllegalArgumentException if there is no device called [name] of [type]
+     */
+    fun <T> get(type: Class<T>, name: String): T {
+        val device = devices[name]
+        if (type.isInstance(device)) return type.cast(device)
+        val res = hardwareMap.get(type, name)
+        devices[name] = res as Any
+        return res
+    }
+
+    inline fun <reified T> get(name: String) = get(T::class.java, name)
+
+    /**
+     * resolves all of [names] as [type] now
+     *
+     * @throws IllegalArgumentException listing every name that could not be resolved
+     */
+    fun require(type: Class<*>, vararg names: String) {
+        val missing = names.filter { name ->
+            try {
+                get(type, name)
+                false
+            } catch (e: IllegalArgumentException) {
+                true
+            }
+        }
+        if (missing.isNotEmpty()) throw IllegalArgumentException(
+            "unable to find ${type.simpleName} devices: ${missing.joinToString()}"
+        )
+    }
+}
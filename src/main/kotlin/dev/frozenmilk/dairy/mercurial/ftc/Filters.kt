@@ -0,0 +1,108 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.function.BooleanSupplier
+
+/**
+ * a boolean filter over [input], which samples [input] at most once per tick of [context]
+ *
+ * all filters use the time sampled by [context] at the start of each tick ([Context.tickTime]),
+ * keep only primitive state, and do not allocate when evaluated
+ *
+ * the input is debounced before it is filtered:
+ * a change in the input is accepted immediately,
+ * but any further changes are ignored until [debounce] nanoseconds have passed
+ */
+abstract class Filter internal constructor(
+    private val context: Context,
+    private val input: BooleanSupplier,
+    private val debounce: Long,
+) : BooleanSupplier {
+    private var tick = -1L
+    private var output = false
+
+    /**
+     * the debounced input
+     */
+    protected var value = false
+        private set
+
+    /**
+     * the tick time at which [value] last changed
+     */
+    protected var changedAt = Long.MIN_VALUE
+        private set
+
+    final override fun getAsBoolean(): Boolean {
+        val tick = context.ticks
+        if (tick == this.tick) return output
+        this.tick = tick
+        val now = context.tickTime
+        val next = input.asBoolean
+        val changed = next != value && (changedAt == Long.MIN_VALUE || now - changedAt >= debounce)
+        if (changed) {
+            value = next
+            changedAt = now
+        }
+        output = filter(changed, now)
+        return output
+    }
+
+    /**
+     * @param changed if [value] changed this tick
+     */
+    protected abstract fun filter(changed: Boolean, now: Long): Boolean
+
+    /**
+     * true for the tick in which the input becomes true
+     */
+    class RisingEdge internal constructor(context: Context, input: BooleanSupplier, debounce: Long) :
+        Filter(context, input, debounce) {
+        override fun filter(changed: Boolean, now: Long) = changed && value
+    }
+
+    /**
+     * true for the tick in which the input becomes false
+     */
+    class FallingEdge internal constructor(context: Context, input: BooleanSupplier, debounce: Long) :
+        Filter(context, input, debounce) {
+        override fun filter(changed: Boolean, now: Long) = changed && !value
+    }
+
+    /**
+     * flips each time the input becomes true, starting false
+     */
+    class Toggle internal constructor(context: Context, input: BooleanSupplier, debounce: Long) :
+        Filter(context, input, debounce) {
+        private var state = false
+        override fun filter(changed: Boolean, now: Long): Boolean {
+            if (changed && value) state = !state
+            return state
+        }
+    }
+
+    /**
+     * the debounced input
+     */
+    class Debounce internal constructor(context: Context, input: BooleanSupplier, debounce: Long) :
+        Filter(context, input, debounce) {
+        override fun filter(changed: Boolean, now: Long) = value
+    }
+
+    /**
+     * true while the input has been true for at least [duration] nanoseconds
+     */
+    class Hold internal constructor(context: Context, input: BooleanSupplier, debounce: Long, private val duration: Long) :
+        Filter(context, input, debounce) {
+        override fun filter(changed: Boolean, now: Long) = value && now - changedAt >= duration
+    }
+
+    companion object {
+        /**
+         * the debounce used when none is given, 1ms
+         */
+        const val DEFAULT_DEBOUNCE = 1_000_000L
+
+        @JvmStatic
+        fun seconds(seconds: Double) = (seconds * 1e9).toLong()
+    }
+}
@@ -0,0 +1,177 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.Gamepad
+
+/**
+ * per-tick snapshots of both gamepads of a [Context]
+ *
+ * the sdk can update a [Gamepad] at any point in a tick,
+ * but each [GamepadState] is only updated at the start of a tick,
+ * so everything run in a tick sees the same inputs
+ */
+class Gamepads internal constructor(gamepad1: Gamepad, gamepad2: Gamepad) {
+    @get:JvmName("gamepad1")
+    val gamepad1 = GamepadState(gamepad1)
+
+    @get:JvmName("gamepad2")
+    val gamepad2 = GamepadState(gamepad2)
+
+    /**
+     * true if any input on either gamepad changed since the last tick
+     */
+    @get:JvmName("anyChanged")
+    val anyChanged
+        get() = gamepad1.changed != 0 || gamepad2.changed != 0
+
+    internal fun update() {
+        gamepad1.update()
+        gamepad2.update()
+    }
+}
+
+enum class Button {
+    A,
+    B,
+    X,
+    Y,
+    DPAD_UP,
+    DPAD_DOWN,
+    DPAD_LEFT,
+    DPAD_RIGHT,
+    LEFT_BUMPER,
+    RIGHT_BUMPER,
+    LEFT_STICK_BUTTON,
+    RIGHT_STICK_BUTTON,
+    BACK,
+    START,
+    GUIDE,
+    TOUCHPAD;
+
+    /**
+     * this button's bit in [GamepadState.buttons] and [GamepadState.changed]
+     */
+    @get:JvmName("mask")
+    val mask = 1 shl ordinal
+}
+
+enum class Axis {
+    LEFT_STICK_X,
+    LEFT_STICK_Y,
+    RIGHT_STICK_X,
+    RIGHT_STICK_Y,
+    LEFT_TRIGGER,
+    RIGHT_TRIGGER;
+
+    /**
+     * this axis' bit in [GamepadState.changed], which follows the [Button] bits
+     */
+    @get:JvmName("mask")
+    val mask = 1 shl (Button.values().size + ordinal)
+}
+
+/**
+ * a primitive copy of a [Gamepad], taken once per tick
+ */
+class GamepadState internal constructor(private val gamepad: Gamepad) {
+    /**
+     * the pressed [Button]s, as a bitmask of [Button.mask]
+     */
+    @get:JvmName("buttons")
+    var buttons = 0
+        private set
+
+    /**
+     * the [Button]s and [Axis]s that changed since the last tick,
+     * as a bitmask of [Button.mask] and [Axis.mask]
+     */
+    @get:JvmName("changed")
+    var changed = 0
+        private set
+
+    private val axes = FloatArray(6)
+
+    init {
+        update()
+        changed = 0
+    }
+
+    fun pressed(button: Button) = buttons and button.mask != 0
+
+    fun changed(button: Button) = changed and button.mask != 0
+
+    fun changed(axis: Axis) = changed and axis.mask != 0
+
+    /**
+     * true for the tick in which [button] is pressed
+     */
+    fun risingEdge(button: Button) = changed(button) && pressed(button)
+
+    /**
+     * true for the tick in which [button] is released
+     */
+    fun fallingEdge(button: Button) = changed(button) && !pressed(button)
+
+    fun axis(axis: Axis) = axes[axis.ordinal]
+
+    @get:JvmName("leftStickX")
+    val leftStickX
+        get() = axes[0]
+
+    @get:JvmName("leftStickY")
+    val leftStickY
+        get() = axes[1]
+
+    @get:JvmName("rightStickX")
+    val rightStickX
+        get() = axes[2]
+
+    @get:JvmName("rightStickY")
+    val rightStickY
+        get() = axes[3]
+
+    @get:JvmName("leftTrigger")
+    val leftTrigger
+        get() = axes[4]
+
+    @get:JvmName("rightTrigger")
+    val rightTrigger
+        get() = axes[5]
+
+    internal fun update() {
+        val gamepad = gamepad
+        var buttons = 0
+        if (gamepad.a) buttons = buttons or (1 shl 0)
+        if (gamepad.b) buttons = buttons or (1 shl 1)
+        if (gamepad.x) buttons = buttons or (1 shl 2)
+        if (gamepad.y) buttons = buttons or (1 shl 3)
+        if (gamepad.dpad_up) buttons = buttons or (1 shl 4)
+        if (gamepad.dpad_down) buttons = buttons or (1 shl 5)
+        if (gamepad.dpad_left) buttons = buttons or (1 shl 6)
+        if (gamepad.dpad_right) buttons = buttons or (1 shl 7)
+        if (gamepad.left_bumper) buttons = buttons or (1 shl 8)
+        if (gamepad.right_bumper) buttons = buttons or (1 shl 9)
+        if (gamepad.left_stick_button) buttons = buttons or (1 shl 10)
+        if (gamepad.right_stick_button) buttons = buttons or (1 shl 11)
+        if (gamepad.back) buttons = buttons or (1 shl 12)
+        if (gamepad.start) buttons = buttons or (1 shl 13)
+        if (gamepad.guide) buttons = buttons or (1 shl 14)
+        if (gamepad.touchpad) buttons = buttons or (1 shl 15)
+
+        var changed = buttons xor this.buttons
+        changed = changed or axis(0, gamepad.left_stick_x)
+        changed = changed or axis(1, gamepad.left_stick_y)
+        changed = changed or axis(2, gamepad.right_stick_x)
+        changed = changed or axis(3, gamepad.right_stick_y)
+        changed = changed or axis(4, gamepad.left_trigger)
+        changed = changed or axis(5, gamepad.right_trigger)
+
+        this.buttons = buttons
+        this.changed = changed
+    }
+
+    private fun axis(i: Int, value: Float): Int {
+        if (axes[i] == value) return 0
+        axes[i] = value
+        return 1 shl (16 + i)
+    }
+}
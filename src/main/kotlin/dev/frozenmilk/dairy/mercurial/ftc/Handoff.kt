@@ -0,0 +1,57 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.IdentityHashMap
+
+/**
+ * typed state handed from one stage of a pipeline to the next, see [Context.handoff]
+ *
+ * values are handed over as they are, nothing is copied or read again,
+ * so a stage can pick up exactly where the last one left off:
+ *
+ * ```kotlin
+ * val POSE = Handoff.Key<Pose>("pose")
+ *
+ * // in auto
+ * handoff[POSE] = drive.pose
+ *
+ * // in teleop
+ * drive.pose = handoff[POSE] ?: Pose()
+ * ```
+ */
+class Handoff internal constructor() {
+    /**
+     * keys are compared by identity, so each key should be declared once
+     */
+    class Key<T>(@get:JvmName("name") val name: String) {
+        override fun toString() = name
+    }
+
+    private val values = IdentityHashMap<Key<*>, Any?>()
+
+    /**
+     * returns the value handed over for [key], or null if there is none
+     */
+    @Suppress("UNCHECKED_CAST")
+    operator fun <T> get(key: Key<T>) = values[key] as T?
+
+    operator fun <T> set(key: Key<T>, value: T) {
+        values[key] = value
+    }
+
+    /**
+     * returns the value handed over for [key]
+     *
+     * @throws IllegalStateException if there is none
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> require(key: Key<T>): T {
+        if (!values.containsKey(key)) throw IllegalStateException("nothing was handed over for $key")
+        return values[key] as T
+    }
+
+    operator fun contains(key: Key<*>) = values.containsKey(key)
+
+    fun remove(key: Key<*>) {
+        values.remove(key)
+    }
+}
@@ -0,0 +1,173 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.hardware.lynx.LynxModule
+import com.qualcomm.robotcore.hardware.DcMotorSimple
+import com.qualcomm.robotcore.hardware.HardwareMap
+import com.qualcomm.robotcore.hardware.Servo
+import java.util.IdentityHashMap
+import kotlin.math.abs
+
+/**
+ * tick-phased hardware io for a [Context]
+ *
+ * at the start of each tick the bulk caches of all [LynxModule]s are cleared,
+ * so the first sensor read in the tick performs one bulk read,
+ * and every other read in the tick is served from the cache
+ *
+ * writes made through [power] and [position] outputs are collected during the tick,
+ * and only the last value written to each output is sent at the end of the tick
+ *
+ * outputs also remember the last value they sent,
+ * and drop writes that are within their epsilon of it
+ */
+class HardwareIO internal constructor(hardwareMap: HardwareMap) {
+    private val modules = hardwareMap.getAll(LynxModule::class.java)
+    private val previousModes = modules.map { it.bulkCachingMode }
+
+    init {
+        modules.forEach { it.bulkCachingMode = LynxModule.BulkCachingMode.MANUAL }
+    }
+
+    /**
+     * the epsilon given to new [PowerOutput]s
+     */
+    @get:JvmName("powerEpsilon")
+    var powerEpsilon = 0.0
+
+    /**
+     * the epsilon given to new [PositionOutput]s
+     */
+    @get:JvmName("positionEpsilon")
+    var positionEpsilon = 0.0
+
+    abstract class Output internal constructor(
+        private val io: HardwareIO,
+        /**
+         * writes within [epsilon] of the last value sent are dropped
+         */
+        @get:JvmName("epsilon")
+        var epsilon: Double,
+    ) {
+        internal var queued = false
+        private var sent = Double.NaN
+
+        protected fun queue() {
+            if (!queued) io.queue(this)
+        }
+
+        /**
+         * forces the next flush to send, even if the value is within [epsilon] of the last value sent
+         *
+         * use this if the device was written to without going through this output
+         */
+        fun invalidate() {
+            sent = Double.NaN
+        }
+
+        internal fun flush() {
+            val value = value()
+            if (sent.isNaN() || abs(value - sent) > epsilon || (value == 0.0 && sent != 0.0)) {
+                send(value)
+                sent = value
+            }
+        }
+
+        protected abstract fun value(): Double
+        protected abstract fun send(value: Double)
+    }
+
+    class PowerOutput internal constructor(
+        io: HardwareIO,
+        @get:JvmName("device") val device: DcMotorSimple,
+    ) : Output(io, io.powerEpsilon) {
+        /**
+         * the last power written to this output, which will be sent at the end of the tick
+         */
+        var power = device.power
+            set(value) {
+                field = value
+                queue()
+            }
+
+        override fun value() = power
+
+        override fun send(value: Double) {
+            device.power = value
+        }
+    }
+
+    class PositionOutput internal constructor(
+        io: HardwareIO,
+        @get:JvmName("device") val device: Servo,
+    ) : Output(io, io.positionEpsilon) {
+        /**
+         * the last position written to this output, which will be sent at the end of the tick
+         */
+        var position = device.position
+            set(value) {
+                field = value
+                queue()
+            }
+
+        override fun value() = position
+
+        override fun send(value: Double) {
+            device.position = value
+        }
+    }
+
+    private val powerOutputs = IdentityHashMap<DcMotorSimple, PowerOutput>()
+    private val positionOutputs = IdentityHashMap<Servo, PositionOutput>()
+    private var queued = arrayOfNulls<Output>(8)
+    private var queuedSize = 0
+
+    /**
+     * returns the power output for [device]
+     *
+     * there is only one output per device, so writes from separate [dev.frozenmilk.dairy.mercurial.continuations.Fiber]s are merged
+     *
+     * the output is created with [powerEpsilon]
+     */
+    fun power(device: DcMotorSimple): PowerOutput = powerOutputs.getOrPut(device) { PowerOutput(this, device) }
+
+    /**
+     * returns the position output for [device]
+     *
+     * there is only one output per device, so writes from separate [dev.frozenmilk.dairy.mercurial.continuations.Fiber]s are merged
+     *
+     * the output is created with [positionEpsilon]
+     */
+    fun position(device: Servo): PositionOutput = positionOutputs.getOrPut(device) { PositionOutput(this, device) }
+
+    private fun queue(output: Output) {
+        if (queuedSize == queued.size) queued = queued.copyOf(queuedSize * 2)
+        output.queued = true
+        queued[queuedSize++] = output
+    }
+
+    /**
+     * clears the bulk caches, so that the next read performs a fresh bulk read
+     */
+    fun clearBulkCache() {
+        for (i in 0 until modules.size) modules[i].clearBulkCache()
+    }
+
+    /**
+     * sends all writes made since the last flush
+     */
+    fun flush() {
+        val queued = queued
+        for (i in 0 until queuedSize) {
+            val output = queued[i]!!
+            queued[i] = null
+            output.queued = false
+            output.flush()
+        }
+        queuedSize = 0
+    }
+
+    internal fun close() {
+        flush()
+        modules.forEachIndexed { i, module -> module.bulkCachingMode = previousModes[i] }
+    }
+}
@@ -0,0 +1,288 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.Gamepad
+import com.qualcomm.robotcore.hardware.HardwareDevice
+import com.qualcomm.robotcore.hardware.HardwareMap
+import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import org.firstinspires.ftc.robotcore.external.Func
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.util.concurrent.Semaphore
+import java.util.function.Supplier
+
+/**
+ * a [Context] for running a program on a plain jvm, without a robot or an opmode,
+ * for tests and benchmarks
+ *
+ * the [HardwareMap] starts empty, add [fake] devices to it,
+ * the [Telemetry] is a fake, which keeps the last value of each caption, see [telemetry]
+ *
+ * the program runs on its own thread, and stops between every tick, until [step] is called,
+ * the [State] is set with [setState], and time is virtual,
+ * it moves forward by [tickLength] each tick, or with [advance]
+ *
+ * every tick is timed by [instrumentation], see [requireTickTime]
+ *
+ * ```kotlin
+ * val context = HeadlessContext(OpModeMeta.Builder().setName("teleop").build())
+ * val motor = context.fake<DcMotorEx>("motor")
+ * context.start(teleop.program)
+ * context.step(10)
+ * context.setState(State.LOOP)
+ * context.gamepad1.a = true
+ * context.step()
+ * check(motor.power == 1.0)
+ * context.requireTickTime(0.99, 0.001)
+ * context.stop()
+ * ```
+ */
+open class HeadlessContext private constructor(
+    private val harness: Harness,
+    metadata: OpModeMeta,
+    scheduler: Scheduler,
+) : Context(metadata, harness, scheduler, HardwareMap(null, null), proxy(Telemetry::class.java, harness.telemetry), Gamepad(), Gamepad()) {
+    @JvmOverloads
+    constructor(
+        metadata: OpModeMeta,
+        scheduler: Scheduler = Scheduler.Standard(),
+    ) : this(Harness(), metadata, scheduler)
+
+    private class Harness : Supplier<State> {
+        @Volatile
+        var state = State.INIT
+        var time = 0L
+        val telemetry = FakeTelemetry()
+
+        // released by the program at the start of each tick, and when it finishes
+        val paused = Semaphore(0)
+
+        // released by the test to let the program run on
+        val resumed = Semaphore(0)
+
+        @Volatile
+        var finished = false
+        var failure: Throwable? = null
+
+        override fun get() = state
+    }
+
+    /**
+     * the virtual time that passes each tick, in nanoseconds, 20ms by default
+     */
+    @get:JvmName("tickLength")
+    var tickLength = 20_000_000L
+
+    @get:JvmName("isFinished")
+    val isFinished
+        get() = harness.finished
+
+    private var thread: Thread? = null
+
+    init {
+        // enabled before the program runs, so every tick is timed
+        instrumentation
+    }
+
+    fun setState(state: State) {
+        harness.state = state
+    }
+
+    /**
+     * moves virtual time forward by [seconds]
+     */
+    fun advance(seconds: Double) {
+        harness.time += Filter.seconds(seconds)
+    }
+
+    override fun nanoTime() = harness.time
+
+    override fun park(nanos: Long) {
+        harness.time += nanos
+    }
+
+    override fun beforeTick() {
+        harness.time += tickLength
+        harness.paused.release()
+        harness.resumed.acquireUninterruptibly()
+    }
+
+    /**
+     * starts [program] on its own thread, and returns once it reaches its first tick, or finishes
+     *
+     * see the extension for a [Mercurial.Program]
+     */
+    fun start(program: HeadlessContext.() -> Unit) {
+        if (thread != null) throw IllegalStateException("the program has already been started")
+        thread = Thread({
+            try {
+                program(this@HeadlessContext)
+            } catch (e: Throwable) {
+                harness.failure = e
+            } finally {
+                try {
+                    shutdown()
+                } catch (e: Throwable) {
+                    if (harness.failure == null) harness.failure = e
+                }
+                harness.finished = true
+                harness.paused.release()
+            }
+        }, "mercurial-headless").apply {
+            isDaemon = true
+            start()
+        }
+        pause()
+    }
+
+    private fun pause() {
+        harness.paused.acquireUninterruptibly()
+        harness.failure?.let { throw IllegalStateException("the program threw", it) }
+    }
+
+    /**
+     * runs [ticks] ticks, or until the program finishes
+     */
+    @JvmOverloads
+    fun step(ticks: Int = 1) {
+        if (thread == null) throw IllegalStateException("the program has not been started")
+        val target = this.ticks + ticks
+        while (!harness.finished && this.ticks < target) {
+            harness.resumed.release()
+            pause()
+        }
+    }
+
+    /**
+     * sets the state to [State.STOP], and lets the program run until it finishes,
+     * or [maxTicks] more ticks have run
+     *
+     * @throws IllegalStateException if the program did not finish
+     */
+    @JvmOverloads
+    fun stop(maxTicks: Int = 1000) {
+        setState(State.STOP)
+        step(maxTicks)
+        if (!harness.finished) throw IllegalStateException("the program did not finish within $maxTicks ticks of stopping")
+    }
+
+    /**
+     * returns a fake [type] called [name], which is added to the [hardwareMap]
+     *
+     * setters of the fake store their value, and the matching getters return it,
+     * other methods return the default value of their return type
+     */
+    fun <T : HardwareDevice> fake(type: Class<T>, name: String): T = proxy(type, FakeDevice()).also {
+        hardwareMap.put(name, it)
+    }
+
+    inline fun <reified T : HardwareDevice> fake(name: String) = fake(T::class.java, name)
+
+    /**
+     * the last value added to the [telemetry] for [caption], as a string,
+     * or null if it has not been added
+     */
+    fun telemetry(caption: String) = harness.telemetry.data[caption]
+
+    /**
+     * @param percentile in the range [0, 1]
+     * @throws AssertionError if [percentile] of the ticks so far took longer than [seconds]
+     */
+    fun requireTickTime(percentile: Double, seconds: Double) {
+        val time = instrumentation.tickTimes.percentile(percentile)
+        if (time > Filter.seconds(seconds)) throw AssertionError(
+            "p${percentile * 100} tick time was ${time / 1e6}ms, over the budget of ${seconds * 1e3}ms"
+        )
+    }
+
+    /**
+     * stores the values of setters, to be returned by the matching getters
+     */
+    private class FakeDevice : (Any, Method, Array<out Any?>?) -> Any? {
+        private val values = HashMap<String, Any?>()
+
+        override fun invoke(proxy: Any, method: Method, args: Array<out Any?>?): Any? {
+            val name = method.name
+            when {
+                name.startsWith("set") && args?.size == 1 -> values[name.substring(3)] = args[0]
+                name.startsWith("get") && args.isNullOrEmpty() -> if (values.containsKey(name.substring(3))) return values[name.substring(3)]
+                name.startsWith("is") && args.isNullOrEmpty() -> if (values.containsKey(name.substring(2))) return values[name.substring(2)]
+            }
+            return default(proxy, method)
+        }
+    }
+
+    /**
+     * keeps the last value of each caption, values given as a [Func] are read when [Telemetry.update] is called
+     */
+    private class FakeTelemetry : (Any, Method, Array<out Any?>?) -> Any? {
+        val data = HashMap<String, String>()
+        private val funcs = HashMap<String, Func<*>>()
+
+        override fun invoke(proxy: Any, method: Method, args: Array<out Any?>?): Any? {
+            when (method.name) {
+                "addData" -> {
+                    val caption = args!![0].toString()
+                    val types = method.parameterTypes
+                    funcs.remove(caption)
+                    when {
+                        // addData(caption, format, valueProducer)
+                        types.size == 3 && types[2] == Func::class.java -> {
+                            val format = args[1] as String
+                            val func = args[2] as Func<*>
+                            funcs[caption] = Func { String.format(format, func.value()) }
+                        }
+                        // addData(caption, format, args...)
+                        types.size == 3 -> data[caption] = String.format(args[1] as String, *(args[2] as Array<*>))
+                        // addData(caption, valueProducer)
+                        types[1] == Func::class.java -> funcs[caption] = args[1] as Func<*>
+                        // addData(caption, value)
+                        else -> data[caption] = args[1].toString()
+                    }
+                }
+                "removeItem" -> return true
+                "update" -> {
+                    funcs.forEach { (caption, func) -> data[caption] = func.value().toString() }
+                    return true
+                }
+            }
+            return default(proxy, method)
+        }
+    }
+
+    private companion object {
+        fun <T> proxy(type: Class<T>, handler: (Any, Method, Array<out Any?>?) -> Any?): T =
+            type.cast(Proxy.newProxyInstance(type.classLoader, arrayOf(type)) { proxy, method, args ->
+                when (method.name) {
+                    "equals" -> proxy === args!![0]
+                    "hashCode" -> System.identityHashCode(proxy)
+                    "toString" -> "fake ${type.simpleName}"
+                    else -> handler(proxy, method, args)
+                }
+            })
+
+        /**
+         * the default value of the return type of [method],
+         * methods that return an interface return a fake of it, or the proxy itself for chaining
+         */
+        fun default(proxy: Any, method: Method): Any? {
+            val type = method.returnType
+            return when {
+                type == Void.TYPE -> null
+                type == java.lang.Boolean.TYPE -> false
+                type == java.lang.Double.TYPE -> 0.0
+                type == java.lang.Float.TYPE -> 0f
+                type == java.lang.Long.TYPE -> 0L
+                type == java.lang.Integer.TYPE -> 0
+                type == java.lang.Short.TYPE -> 0.toShort()
+                type == java.lang.Byte.TYPE -> 0.toByte()
+                type == java.lang.Character.TYPE -> 0.toChar()
+                type == String::class.java -> ""
+                type.isInstance(proxy) -> proxy
+                type.isInterface -> proxy(type) { p, m, _ -> default(p, m) }
+                else -> null
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+@file:JvmName("HeadlessPrograms")
+package dev.frozenmilk.dairy.mercurial.ftc
+
+/*
+ * kept apart from [HeadlessContext] and [ReplayContext],
+ * so that they can be compiled without the rest of the library
+ */
+
+/**
+ * starts [program], see [HeadlessContext.start]
+ */
+fun HeadlessContext.start(program: Mercurial.Program) = start { program.run { exec() } }
+
+/**
+ * runs [program] until it finishes, or the recording runs out, see [ReplayContext.run]
+ */
+fun ReplayContext.run(program: Mercurial.Program) = run { program.run { exec() } }
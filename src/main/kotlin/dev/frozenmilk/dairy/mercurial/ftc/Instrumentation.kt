@@ -0,0 +1,168 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import dev.frozenmilk.dairy.mercurial.continuations.Closure
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations
+import org.firstinspires.ftc.robotcore.external.Func
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import java.util.Arrays
+
+/**
+ * loop time instrumentation for a [Context]
+ *
+ * all samples are stored in preallocated ring buffers,
+ * so recording them does not allocate
+ */
+class Instrumentation internal constructor(private val capacity: Int) {
+    /**
+     * a ring buffer of the last [capacity] samples of a timing, in nanoseconds
+     */
+    class Timings internal constructor(
+        @get:JvmName("name") val name: String,
+        capacity: Int,
+    ) {
+        private val samples = LongArray(capacity)
+        private val sorted = LongArray(capacity)
+        private var next = 0
+
+        /**
+         * the number of samples currently in the buffer
+         */
+        @get:JvmName("count")
+        var count = 0
+            private set
+
+        /**
+         * the number of samples recorded since creation
+         */
+        @get:JvmName("recorded")
+        var recorded = 0L
+            private set
+
+        fun record(nanos: Long) {
+            samples[next] = nanos
+            next = (next + 1) % samples.size
+            if (count < samples.size) count++
+            recorded++
+        }
+
+        /**
+         * times [f]
+         */
+        fun time(f: Runnable) {
+            val start = System.nanoTime()
+            try {
+                f.run()
+            } finally {
+                record(System.nanoTime() - start)
+            }
+        }
+
+        /**
+         * the same as [Continuations.exec], but each step is timed
+         */
+        fun exec(f: Runnable): Closure = Continuations.exec { time(f) }
+
+        @get:JvmName("last")
+        val last
+            get() = if (count == 0) 0L else samples[(next - 1 + samples.size) % samples.size]
+
+        fun min(): Long {
+            if (count == 0) return 0L
+            var res = Long.MAX_VALUE
+            for (i in 0 until count) if (samples[i] < res) res = samples[i]
+            return res
+        }
+
+        fun max(): Long {
+            var res = 0L
+            for (i in 0 until count) if (samples[i] > res) res = samples[i]
+            return res
+        }
+
+        fun average(): Double {
+            if (count == 0) return 0.0
+            var sum = 0L
+            for (i in 0 until count) sum += samples[i]
+            return sum.toDouble() / count
+        }
+
+        /**
+         * @param percentile in the range [0, 1]
+         */
+        fun percentile(percentile: Double): Long {
+            if (count == 0) return 0L
+            System.arraycopy(samples, 0, sorted, 0, count)
+            Arrays.sort(sorted, 0, count)
+            val i = (percentile * (count - 1)).toInt().coerceIn(0, count - 1)
+            return sorted[i]
+        }
+
+        fun p99() = percentile(0.99)
+
+        /**
+         * min / avg / p99 / max in milliseconds
+         */
+        fun summary() = String.format(
+            "%.2f / %.2f / %.2f / %.2f ms",
+            min() / 1e6,
+            average() / 1e6,
+            p99() / 1e6,
+            max() / 1e6,
+        )
+    }
+
+    /**
+     * time from the start of one tick to the start of the next
+     */
+    @get:JvmName("loopTimes")
+    val loopTimes = Timings("loop", capacity)
+
+    /**
+     * time spent inside each tick, stepping [dev.frozenmilk.dairy.mercurial.continuations.Fiber]s
+     */
+    @get:JvmName("tickTimes")
+    val tickTimes = Timings("tick", capacity)
+
+    private val sections = ArrayList<Timings>()
+    private var tickStart = 0L
+
+    /**
+     * returns a new [Timings] with the same capacity as the others,
+     * use it to time the steps of a [dev.frozenmilk.dairy.mercurial.continuations.Fiber]:
+     *
+     * ```kotlin
+     * val drive = instrumentation.section("drive")
+     * schedule(loop(drive.exec { ... }))
+     * ```
+     */
+    fun section(name: String) = Timings(name, capacity).also { sections.add(it) }
+
+    internal fun beginTick() {
+        val now = System.nanoTime()
+        if (tickStart != 0L) loopTimes.record(now - tickStart)
+        tickStart = now
+    }
+
+    internal fun endTick() {
+        tickTimes.record(System.nanoTime() - tickStart)
+    }
+
+    /**
+     * adds retained min / avg / p99 / max lines for all timings to [telemetry]
+     *
+     * the lines are only formatted when telemetry is actually transmitted
+     */
+    fun addTo(telemetry: Telemetry) {
+        addTo(telemetry, loopTimes)
+        addTo(telemetry, tickTimes)
+        sections.forEach { addTo(telemetry, it) }
+    }
+
+    private fun addTo(telemetry: Telemetry, timings: Timings) {
+        telemetry.addData(timings.name, Func { timings.summary() }).setRetained(true)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+    }
+}
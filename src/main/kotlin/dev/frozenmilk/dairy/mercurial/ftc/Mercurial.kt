@@ -1,10 +1,17 @@
 package dev.frozenmilk.dairy.mercurial.ftc
 
 import com.qualcomm.ftccommon.FtcEventLoop
+import com.qualcomm.robotcore.eventloop.opmode.OpMode
 import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerImpl
+import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerNotifier
+import com.qualcomm.robotcore.hardware.HardwareMap
 import dev.frozenmilk.sinister.sdk.apphooks.OnCreateEventLoop
 import dev.frozenmilk.sinister.sdk.opmodes.SinisterRegisteredOpModes
 import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 object Mercurial {
     fun interface Program {
@@ -138,41 +145,233 @@ object Mercurial {
         }
     }
 
-    private fun pipelineName(name: String) = "$name |> teleop"
+    private fun pipelineName(name: String, stage: String = "teleop") = "$name |> $stage"
 
-    fun liftPipeLine(program: PipelineProgram) = Program {
-        val name = pipelineName(metadata.name)
-        val metadata = OpModeMeta.Builder() //
-            .setName("$$name$") //
-            .setSystemOpModeBaseDisplayName(name) //
-            .setTransitionTarget(metadata.name) //
-            .setFlavor(OpModeMeta.Flavor.SYSTEM) //
-            .build()
-
-        try {
-            val nextProgram = program.run { exec() }
-
-            // register temporary opmode
-            SinisterRegisteredOpModes.register(metadata) {
-                MercurialProgramScanner.MercurialProgramConverter(
-                    metadata
-                ) {
-                    try {
-                        nextProgram.run { exec() }
-                    } finally {
-                        SinisterRegisteredOpModes.unregister(metadata)
+    /**
+     * a stage of a pipeline that is set up ahead of time
+     */
+    fun interface StageSetup {
+        /**
+         * builds the program of the stage, and what it needs, such as hardware handles, closures and caches
+         *
+         * this is run on a background thread while the stage before it runs,
+         * so it must not use the [Context] of that stage,
+         * and the [Context.handoff] of that stage is not filled in yet,
+         * it should be read by the program that is returned
+         */
+        fun setup(hardwareMap: HardwareMap): Program
+    }
+
+    /**
+     * the temporary [OpModeMeta.Flavor.SYSTEM] opmodes that run the later stages of a pipeline
+     *
+     * they are all registered together, before the first stage runs,
+     * and the setup of each stage is run in the background while the stage before it runs
+     *
+     * they are all unregistered together, once a stage stops without switching to the next,
+     * because it was the last, it failed, or it could not switch,
+     * or once any other opmode is initialised
+     */
+    private class Stages(context: Context, names: List<String>, private val setups: List<StageSetup>) {
+        private val opModes: List<OpModeMeta>
+        private val hardwareMap = context.hardwareMap
+        private val prepared = arrayOfNulls<Future<Program>>(setups.size)
+        private val executor = Executors.newSingleThreadExecutor {
+            Thread(it, "mercurial-pipeline").apply { isDaemon = true }
+        }
+
+        // the opmodes built for the stages, any other opmode being initialised ends the pipeline
+        private val converters = ArrayList<OpMode>()
+        private val listener = object : OpModeManagerNotifier.Notifications {
+            override fun onOpModePreInit(opMode: OpMode) {
+                // the opmode that the sdk switches to while no other opmode is running
+                if (opMode is OpModeManagerImpl.DefaultOpMode) return
+                if (synchronized(converters) { opMode !in converters }) unregisterAll(fromListener = true)
+            }
+
+            override fun onOpModePreStart(opMode: OpMode) {}
+
+            override fun onOpModePostStop(opMode: OpMode) {}
+        }
+        private var unregistered = false
+
+        init {
+            val target = context.metadata.name
+            val devices = context.devices
+            val handoff = context.handoff
+            var name = target
+            val opModes = names.map { stage ->
+                name = pipelineName(name, stage)
+                OpModeMeta.Builder() //
+                    .setName("$$name$") //
+                    .setSystemOpModeBaseDisplayName(name) //
+                    .setTransitionTarget(target) //
+                    .setFlavor(OpModeMeta.Flavor.SYSTEM) //
+                    .build()
+            }
+            this.opModes = opModes
+
+            try {
+                opModes.forEachIndexed { i, opMode ->
+                    SinisterRegisteredOpModes.register(opMode) {
+                        MercurialProgramScanner.MercurialProgramConverter(
+                            opMode,
+                            { runStage(this, i) { take(i) } },
+                            devices,
+                            handoff,
+                        ).also { synchronized(converters) { converters.add(it) } }
                     }
                 }
+                OpModeManager.opModeManager?.registerListener(listener)
+                // set up while the first stage runs
+                prepare(0)
+            } catch (e: Throwable) {
+                unregisterAll()
+                throw e
+            }
+        }
+
+        /**
+         * runs the program from [program] as stage [i] in [context], where stage -1 is the first stage,
+         * which is the opmode that built the pipeline, and then switches to the next stage
+         *
+         * if there is no next stage to switch to, the pipeline is unregistered
+         */
+        fun runStage(context: Context, i: Int, program: () -> Program) {
+            var switched = false
+            try {
+                // the next stage is set up while this one runs
+                prepare(i + 1)
+                program().run { context.exec() }
+                if (i < opModes.lastIndex) switched = initStage(i + 1)
+            } finally {
+                if (!switched) unregisterAll()
             }
+        }
+
+        /**
+         * starts the setup of stage [i] in the background, if it has not been started already
+         */
+        private fun prepare(i: Int) {
+            if (i > prepared.lastIndex || prepared[i] != null) return
+            prepared[i] = executor.submit(Callable { setups[i].setup(hardwareMap) })
+            if (i == prepared.lastIndex) executor.shutdown()
+        }
+
+        /**
+         * waits for the setup of stage [i] to finish, rethrowing any error from it
+         */
+        private fun take(i: Int): Program {
+            prepare(i)
+            return try {
+                prepared[i]!!.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+
+        /**
+         * immediately switches to stage [i]
+         *
+         * @return false if there is no opmode manager to switch with
+         */
+        private fun initStage(i: Int): Boolean {
+            val opModeManager = OpModeManager.opModeManager ?: return false
+            opModeManager.initOpMode(opModes[i].name)
+            return true
+        }
+
+        /**
+         * @param fromListener true while the listener is being notified,
+         * the sdk holds its listeners while it notifies them, so the listener cannot be removed then,
+         * instead it is removed from another thread, once the notification has finished
+         */
+        fun unregisterAll(fromListener: Boolean = false) {
+            synchronized(this) {
+                if (unregistered) return
+                unregistered = true
+            }
+            executor.shutdown()
+            opModes.forEach { SinisterRegisteredOpModes.unregister(it) }
+            if (!fromListener) removeListener()
+            else Thread(::removeListener, "mercurial-pipeline").apply {
+                isDaemon = true
+                start()
+            }
+        }
+
+        private fun removeListener() {
+            OpModeManager.opModeManager?.unregisterListener(listener)
+        }
+    }
+
+    /**
+     * [program] is the first stage, and the program it returns is run as the second,
+     * in a temporary opmode called `name |> teleop`
+     *
+     * the second stage is only known once the first finishes, so none of its setup is done ahead of time,
+     * see the [StageSetup] overload
+     */
+    fun liftPipeLine(program: PipelineProgram) = Program {
+        lateinit var nextProgram: Program
+        Stages(this, listOf("teleop"), listOf(StageSetup { Program { nextProgram.run { exec() } } })) //
+            .runStage(this, -1) { Program { nextProgram = program.run { exec() } } }
+    }
+
+    /**
+     * [program] is the first stage, and [next] is run as the second,
+     * in a temporary opmode called `name |> teleop`
+     *
+     * [next] is set up in the background while [program] runs,
+     * so the second stage is ready to run as soon as the first finishes
+     */
+    fun liftPipeLine(program: Program, next: StageSetup) = PipelineBuilder(program, listOf("teleop" to next)).build()
+
+    /**
+     * builds a pipeline of any number of stages, each run in its own temporary opmode after the last,
+     * the stages can pass state to each other through [Context.handoff]
+     */
+    class PipelineBuilder internal constructor(
+        private val first: Program,
+        private val stages: List<Pair<String, StageSetup>>,
+    ) {
+        /**
+         * adds a stage called [name], which is run after the last stage finishes,
+         * in a temporary opmode called `first |> ... |> name`
+         */
+        fun then(name: String, program: Program) = PipelineBuilder(first, stages + (name to StageSetup { program }))
 
-            // immediately switch to it
-            OpModeManager.opModeManager?.initOpMode(metadata.name)
-        } catch (e: Throwable) {
-            SinisterRegisteredOpModes.unregister(metadata)
-            throw e
+        /**
+         * adds a stage called [name], like [then], which is built by [setup],
+         * in the background while the stage before it runs
+         */
+        fun thenPrepared(name: String, setup: StageSetup) = PipelineBuilder(first, stages + (name to setup))
+
+        fun build(): Program {
+            if (stages.isEmpty()) return first
+            val names = stages.map { it.first }
+            val setups = stages.map { it.second }
+            return Program {
+                Stages(this, names, setups).runStage(this, -1) { first }
+            }
         }
     }
 
+    /**
+     * starts a pipeline with [program] as its first stage
+     *
+     * ```kotlin
+     * val calibration = Mercurial.autonomous(
+     *     Mercurial.pipeline(calibrate) //
+     *         .then("auto", auto) //
+     *         .then("teleop", teleop) //
+     *         .build()
+     * )
+     * ```
+     */
+    @JvmStatic
+    fun pipeline(program: Program) = PipelineBuilder(program, emptyList())
+
     @JvmStatic
     fun pipelineAutonomous(program: PipelineProgram) = buildProgram() //
         .withType(OpModeMeta.Flavor.AUTONOMOUS) //
@@ -198,6 +397,65 @@ object Mercurial {
         .withGroup(group) //
         .withProgram(liftPipeLine(program))
 
+    /**
+     * runs [program], and then [teleop], which is set up in the background while [program] runs
+     */
+    @JvmStatic
+    fun pipelineAutonomous(
+        program: Program,
+        teleop: StageSetup,
+    ) = buildProgram() //
+        .withType(OpModeMeta.Flavor.AUTONOMOUS) //
+        .withProgram(liftPipeLine(program, teleop))
+
+    @JvmStatic
+    fun pipelineAutonomous(
+        name: String,
+        program: Program,
+        teleop: StageSetup,
+    ) = buildProgram() //
+        .withType(OpModeMeta.Flavor.AUTONOMOUS) //
+        .withName(name) //
+        .withProgram(liftPipeLine(program, teleop))
+
+    //
+    // Lazy Registration
+    //
+
+    /**
+     * registers a [RegisterableProgram] field from this annotation,
+     * without reading the field
+     *
+     * the field is only read when the program is initialised,
+     * so the class that declares it is not initialised until then
+     *
+     * the metadata of the program is taken from this annotation,
+     * the name, group, type and transition target of the [RegisterableProgram] are ignored
+     *
+     * ```kotlin
+     * @JvmField
+     * @Mercurial.LazyProgram(name = "drive", type = OpModeMeta.Flavor.TELEOP)
+     * val drive = Mercurial.teleop { ... }
+     * ```
+     */
+    @Target(AnnotationTarget.FIELD)
+    @Retention(AnnotationRetention.RUNTIME)
+    annotation class LazyProgram(
+        /**
+         * defaults to the name of the field
+         */
+        val name: String = "",
+        /**
+         * defaults to [OpModeMeta.DefaultGroup]
+         */
+        val group: String = "",
+        val type: OpModeMeta.Flavor,
+        /**
+         * the name of the program to transition to, if any
+         */
+        val transitionTarget: String = "",
+    )
+
     //
     // Manual Registration
     //
@@ -1,22 +1,27 @@
 package dev.frozenmilk.dairy.mercurial.ftc
 
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode
+import com.qualcomm.robotcore.util.RobotLog
 import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
 import dev.frozenmilk.sinister.isPublic
 import dev.frozenmilk.sinister.isStatic
 import dev.frozenmilk.sinister.sdk.opmodes.OpModeScanner
 import dev.frozenmilk.sinister.targeting.WideSearch
 import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
-import kotlin.reflect.KVisibility
-import kotlin.reflect.jvm.kotlinProperty
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
 
 @Suppress("UNUSED")
 object MercurialProgramScanner : OpModeScanner() {
+    private const val TAG = "MercurialProgramScanner"
+
     override val targets = WideSearch()
 
     class MercurialProgramConverter(
         private val metadata: OpModeMeta,
         private val program: Mercurial.Program,
+        private val devices: Devices? = null,
+        private val handoff: Handoff? = null,
     ) : LinearOpMode() {
         override fun runOpMode() {
             val scheduler = Scheduler.Standard()
@@ -33,10 +38,16 @@ object MercurialProgramScanner : OpModeScanner() {
                 gamepad1,
                 gamepad2,
             )
-            context.run {
-                program.run {
-                    exec()
+            context.inheritedDevices = devices
+            context.inheritedHandoff = handoff
+            try {
+                context.run {
+                    program.run {
+                        exec()
+                    }
                 }
+            } finally {
+                context.shutdown()
             }
         }
     }
@@ -49,44 +60,143 @@ object MercurialProgramScanner : OpModeScanner() {
         cls: Class<*>,
         registrationHelper: RegistrationHelper,
     ) {
-        cls.declaredFields.filter { field ->
-            field.type == Mercurial.ProgramRegistrar::class.java //
-                    && field.isStatic()
-        }.forEach { field ->
-            field.isAccessible = true
-            val registrar = field.get(null) as Mercurial.ProgramRegistrar
-
-            registrar.register { registerableProgram ->
-                val metadata = OpModeMeta.Builder() //
-                    .setName(requireNotNull(registerableProgram.name) { "dynamic registration of a program must provide a name" }) //
-                    .setGroup(registerableProgram.group ?: OpModeMeta.DefaultGroup) //
-                    .setFlavor(registerableProgram.type) //
-                    .setTransitionTarget(registerableProgram.transitionTarget?.invoke(registerableProgram.name)) //
-                    .setSource(OpModeMeta.Source.ANDROID_STUDIO) //
-                    .build() //
-
-                registrationHelper.register(metadata) {
-                    MercurialProgramConverter(
-                        metadata,
-                        registerableProgram.program,
-                    )
+        // only the index of the loader that defined cls was built from cls
+        val index = ProgramIndex.of(cls.classLoader)
+        val fingerprint = index.fingerprint(cls)
+
+        // unchanged since it was last scanned, so it is not initialised
+        fingerprint?.let { ScanCache[cls, it] }?.let { programs ->
+            programs.forEach { registerCached(cls, it, registrationHelper) }
+            return
+        }
+
+        val initialised = ProgramIndex.of(loader).let { scanned ->
+            ParallelScan.of(loader, scanned) { needsInit(scanned, it) }?.await(cls) ?: true
+        }
+        if (!initialised) {
+            val message = "${cls.name} did not finish initialising within ${ParallelScan.INIT_TIMEOUT}ms, " +
+                    "its static initialiser may depend on another class that is being initialised at the same time, " +
+                    "its programs were not registered, turn off mercurial.scanThreads to register them"
+            RobotLog.ee(TAG, message)
+            RobotLog.setGlobalWarningMessage(message)
+            return
+        }
+
+        val programs = ArrayList<ScanCache.Program>()
+        var registrar = false
+        programFields(index, cls).forEach { (field, kind) ->
+            when (kind) {
+                ProgramIndex.Kind.REGISTRAR -> {
+                    registerRegistrar(field, registrationHelper)
+                    registrar = true
                 }
+                ProgramIndex.Kind.PROGRAM -> programs += registerProgram(field, registrationHelper)
             }
         }
+        if (fingerprint != null && !registrar) ScanCache[cls, fingerprint] = programs
+    }
+
+    /**
+     * the program fields of [cls], from the [ProgramIndex] if it is indexed, otherwise by reflection
+     */
+    private fun programFields(index: ProgramIndex, cls: Class<*>): List<Pair<Field, ProgramIndex.Kind>> {
+        index[cls]?.let { entries ->
+            // a stale index falls back to reflection
+            resolve(cls, entries)?.let { return it }
+        }
+        return reflect(cls)
+    }
+
+    /**
+     * a class only needs to be initialised to be scanned if it declares a program field that is not lazy,
+     * and it has changed since it was last scanned
+     */
+    private fun needsInit(index: ProgramIndex, cls: Class<*>) = try {
+        index.fingerprint(cls)?.let { ScanCache[cls, it] } == null && index[cls].orEmpty().any {
+            it.kind == ProgramIndex.Kind.REGISTRAR
+                    || !cls.getDeclaredField(it.field).isAnnotationPresent(Mercurial.LazyProgram::class.java)
+        }
+    } catch (e: NoSuchFieldException) {
+        // the index is stale, the class will be scanned with reflection
+        false
+    }
+
+    private fun resolve(cls: Class<*>, entries: List<ProgramIndex.Entry>) = try {
+        entries.map { cls.getDeclaredField(it.field) to it.kind }
+    } catch (e: NoSuchFieldException) {
+        null
+    }
 
-        cls.declaredFields.filter { field ->
+    private fun reflect(cls: Class<*>): List<Pair<Field, ProgramIndex.Kind>> {
+        val fields = cls.declaredFields
+        return fields.filter { field ->
+            field.type == Mercurial.ProgramRegistrar::class.java //
+                    && field.isStatic()
+        }.map { it to ProgramIndex.Kind.REGISTRAR } + fields.filter { field ->
             field.type == Mercurial.RegisterableProgram::class.java //
-                    && field.kotlinProperty?.let { it.visibility == KVisibility.PUBLIC } ?: field.isPublic() //
                     && field.isStatic() //
-        }.forEach {
-            it.isAccessible = true
-            val registerableProgram = it.get(null) as Mercurial.RegisterableProgram
+                    && isPublic(cls, field) //
+        }.map { it to ProgramIndex.Kind.PROGRAM }
+    }
+
+    /**
+     * a java field is public if it is declared public
+     *
+     * a kotlin property is compiled to a private field, unless it is a `@JvmField`,
+     * so it is public if it has a public getter, either on the class, or on its companion object
+     *
+     * a `@JvmField internal` property is compiled to a public field, so it is public here
+     *
+     * this is decided without kotlin-reflect,
+     * which is slow to load and to read the metadata of each class with
+     */
+    private fun isPublic(cls: Class<*>, field: Field): Boolean {
+        if (field.isPublic()) return true
+        if (!cls.isAnnotationPresent(Metadata::class.java)) return false
+        val getter = getterName(field.name)
+        if (hasPublicGetter(cls, getter)) return true
+        val companion = companion(cls) ?: return false
+        return hasPublicGetter(companion, getter)
+    }
+
+    /**
+     * the companion object of [cls], the nested class that [cls] holds the instance of in a field of the same name
+     */
+    private fun companion(cls: Class<*>) = cls.declaredClasses.firstOrNull { nested ->
+        try {
+            val field = cls.getDeclaredField(nested.simpleName)
+            field.isStatic() && field.type == nested
+        } catch (e: NoSuchFieldException) {
+            false
+        }
+    }
+
+    private fun hasPublicGetter(cls: Class<*>, getter: String) = try {
+        Modifier.isPublic(cls.getDeclaredMethod(getter).modifiers)
+    } catch (e: NoSuchMethodException) {
+        false
+    }
+
+    /**
+     * the name kotlin gives to the getter of [property]
+     */
+    private fun getterName(property: String) =
+        if (property.startsWith("is") && property.length > 2 && !property[2].isLowerCase()) property
+        else "get" + property[0].uppercaseChar() + property.substring(1)
 
+    private fun registerRegistrar(
+        field: Field,
+        registrationHelper: RegistrationHelper,
+    ) {
+        field.isAccessible = true
+        val registrar = field.get(null) as Mercurial.ProgramRegistrar
+
+        registrar.register { registerableProgram ->
             val metadata = OpModeMeta.Builder() //
-                .setName(registerableProgram.name ?: it.name) //
+                .setName(requireNotNull(registerableProgram.name) { "dynamic registration of a program must provide a name" }) //
                 .setGroup(registerableProgram.group ?: OpModeMeta.DefaultGroup) //
                 .setFlavor(registerableProgram.type) //
-                .setTransitionTarget(registerableProgram.transitionTarget?.invoke(registerableProgram.name ?: it.name)) //
+                .setTransitionTarget(registerableProgram.transitionTarget?.invoke(registerableProgram.name)) //
                 .setSource(OpModeMeta.Source.ANDROID_STUDIO) //
                 .build() //
 
@@ -98,4 +208,81 @@ object MercurialProgramScanner : OpModeScanner() {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return what was registered, for the [ScanCache]
+     */
+    private fun registerProgram(
+        field: Field,
+        registrationHelper: RegistrationHelper,
+    ): ScanCache.Program {
+        field.isAccessible = true
+
+        val lazy = field.getAnnotation(Mercurial.LazyProgram::class.java)
+        if (lazy != null) return registerLazyProgram(field, lazy, registrationHelper)
+
+        val registerableProgram = field.get(null) as Mercurial.RegisterableProgram
+
+        val metadata = OpModeMeta.Builder() //
+            .setName(registerableProgram.name ?: field.name) //
+            .setGroup(registerableProgram.group ?: OpModeMeta.DefaultGroup) //
+            .setFlavor(registerableProgram.type) //
+            .setTransitionTarget(registerableProgram.transitionTarget?.invoke(registerableProgram.name ?: field.name)) //
+            .setSource(OpModeMeta.Source.ANDROID_STUDIO) //
+            .build() //
+
+        registrationHelper.register(metadata) {
+            MercurialProgramConverter(
+                metadata,
+                registerableProgram.program,
+            )
+        }
+
+        return ScanCache.Program(field.name, metadata)
+    }
+
+    /**
+     * registers [field] from [lazy], the field is only read when the program is initialised
+     */
+    private fun registerLazyProgram(
+        field: Field,
+        lazy: Mercurial.LazyProgram,
+        registrationHelper: RegistrationHelper,
+    ): ScanCache.Program {
+        val metadata = OpModeMeta.Builder() //
+            .setName(lazy.name.ifEmpty { field.name }) //
+            .setGroup(lazy.group.ifEmpty { OpModeMeta.DefaultGroup }) //
+            .setFlavor(lazy.type) //
+            .setTransitionTarget(lazy.transitionTarget.ifEmpty { null }) //
+            .setSource(OpModeMeta.Source.ANDROID_STUDIO) //
+            .build() //
+
+        registrationHelper.register(metadata) {
+            MercurialProgramConverter(
+                metadata,
+                (field.get(null) as Mercurial.RegisterableProgram).program,
+            )
+        }
+
+        return ScanCache.Program(field.name, metadata)
+    }
+
+    /**
+     * registers [program] of [cls] again, from the [ScanCache],
+     * the field is only read when the program is initialised
+     */
+    private fun registerCached(
+        cls: Class<*>,
+        program: ScanCache.Program,
+        registrationHelper: RegistrationHelper,
+    ) {
+        registrationHelper.register(program.metadata) {
+            val field = cls.getDeclaredField(program.field)
+            field.isAccessible = true
+            MercurialProgramConverter(
+                program.metadata,
+                (field.get(null) as Mercurial.RegisterableProgram).program,
+            )
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.WeakHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.min
+
+/**
+ * opt-in parallel initialisation of the classes in a [ProgramIndex]
+ *
+ * reading a program field initialises the class that declares it,
+ * which is most of the work of scanning it,
+ * so the indexed classes are initialised on a bounded pool before they are scanned
+ *
+ * registration is still done on the scanning thread, in the order that the classes are scanned,
+ * so programs are registered in the same order as without it
+ *
+ * enabled by the [PATH] resource, which holds the number of threads to use,
+ * see the `mercurial.scanThreads` option of `MercurialFTC-Processor`
+ *
+ * static initialisers that refer to each other deadlock if they are run on different threads at once,
+ * and that cannot be undone, so a class that takes longer than [INIT_TIMEOUT] is given up on,
+ * as is every other class that the pool had started and not finished by then,
+ * and the classes that the pool has not started yet are initialised by the scanning thread instead
+ *
+ * this does not make the scan deadlock free,
+ * the scanning thread still hangs if it initialises a class whose static initialiser
+ * refers to one of the classes that were given up on
+ */
+internal class ParallelScan private constructor(
+    private val inits: Map<String, Init>,
+    private val timeout: Long,
+) {
+    @Volatile
+    private var stalled = false
+
+    /**
+     * waits for [cls] to be initialised, rethrowing any error from its initialiser
+     *
+     * @return false if the pool started initialising [cls], and did not finish within the timeout,
+     * in which case it must not be read, as it may never finish
+     */
+    fun await(cls: Class<*>): Boolean {
+        val init = inits[cls.name] ?: return true
+        // taken from the pool, so it is initialised by the scanning thread when it is read
+        if (init.state.get() == TAKEN) return true
+        return try {
+            init.future.get(timeout, TimeUnit.MILLISECONDS)
+            // the pool may have found it taken, in which case it is initialised when it is read
+            true
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } catch (e: TimeoutException) {
+            if (!stalled) {
+                stalled = true
+                // the pool may never get to them
+                inits.values.forEach { it.state.compareAndSet(NEW, TAKEN) }
+            }
+            false
+        }
+    }
+
+    /**
+     * initialises one class on the pool, unless the scanning thread has taken it first
+     */
+    private class Init(
+        private val loader: ClassLoader,
+        private val name: String,
+        private val needsInit: (Class<*>) -> Boolean,
+    ) : Runnable {
+        val state = AtomicInteger(NEW)
+        lateinit var future: Future<*>
+
+        override fun run() {
+            if (!state.compareAndSet(NEW, STARTED)) return
+            if (needsInit(Class.forName(name, false, loader))) Class.forName(name, true, loader)
+        }
+    }
+
+    companion object {
+        const val PATH = "META-INF/dev.frozenmilk.dairy.mercurial.ftc/scanThreads"
+
+        /**
+         * how long to wait for one class to be initialised, in milliseconds
+         */
+        const val INIT_TIMEOUT = 10_000L
+
+        private const val NEW = 0
+        private const val STARTED = 1
+        private const val TAKEN = 2
+
+        private val scans = WeakHashMap<ClassLoader, ParallelScan?>()
+
+        /**
+         * the parallel scan of [index] in [loader], started by the first call,
+         * or null if it is not enabled
+         *
+         * @param needsInit if a class needs to be initialised to be scanned
+         */
+        fun of(loader: ClassLoader, index: ProgramIndex, needsInit: (Class<*>) -> Boolean) = synchronized(scans) {
+            if (scans.containsKey(loader)) scans[loader]
+            else {
+                val threads = threads(loader)
+                (if (threads > 1) start(loader, index.classes, threads, needsInit = needsInit) else null) //
+                    .also { scans[loader] = it }
+            }
+        }
+
+        private fun threads(loader: ClassLoader) = loader.getResources(PATH).asSequence().maxOfOrNull { url ->
+            url.openStream().bufferedReader().use { it.readText().trim().toIntOrNull() ?: 0 }
+        } ?: 0
+
+        /**
+         * initialises [classes] on a pool of at most [threads] threads
+         */
+        fun start(
+            loader: ClassLoader,
+            classes: Collection<String>,
+            threads: Int,
+            timeout: Long = INIT_TIMEOUT,
+            needsInit: (Class<*>) -> Boolean,
+        ): ParallelScan {
+            val executor = Executors.newFixedThreadPool(min(threads, Runtime.getRuntime().availableProcessors())) {
+                Thread(it, "mercurial-scan").apply { isDaemon = true }
+            }
+            val inits = HashMap<String, Init>()
+            try {
+                classes.forEach { name ->
+                    inits[name] = Init(loader, name, needsInit).also { it.future = executor.submit(it) }
+                }
+            } finally {
+                // the pool stops once every class is initialised
+                executor.shutdown()
+            }
+            return ParallelScan(inits, timeout)
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.util.WeakHashMap
+
+/**
+ * the build time index of program fields, written by `MercurialFTC-Processor`
+ *
+ * see `ProgramIndexProcessor` for the format
+ */
+internal class ProgramIndex private constructor(
+    private val entries: Map<String, List<Entry>>,
+    private val fingerprints: Map<String, String>,
+) {
+    enum class Kind {
+        REGISTRAR,
+        PROGRAM,
+    }
+
+    class Entry(val kind: Kind, val field: String)
+
+    /**
+     * returns the indexed program fields of [cls],
+     * or null if [cls] was not indexed
+     *
+     * the index lists every member class, so a class nested in an indexed class
+     * that is not listed itself is local, anonymous or synthetic,
+     * none of which declare static program fields
+     */
+    operator fun get(cls: Class<*>): List<Entry>? {
+        entries[cls.name]?.let { return it }
+        val outer = cls.name.substringBefore('$')
+        if (outer != cls.name && entries.containsKey(outer)) return emptyList()
+        return null
+    }
+
+    /**
+     * returns the fingerprint of the source of [cls], or null if it has none,
+     * only java classes are fingerprinted, see [ScanCache]
+     */
+    fun fingerprint(cls: Class<*>) = fingerprints[cls.name]
+
+    /**
+     * the indexed classes that declare program fields
+     */
+    val classes: Set<String>
+        get() = entries.filterValues { it.isNotEmpty() }.keys
+
+    companion object {
+        const val PATH = "META-INF/dev.frozenmilk.dairy.mercurial.ftc/programs"
+
+        private val indexes = WeakHashMap<ClassLoader, ProgramIndex>()
+
+        private val empty = ProgramIndex(emptyMap(), emptyMap())
+
+        /**
+         * the merged index of the [PATH] resources that belong to [loader],
+         * which only describes the classes defined by [loader]
+         *
+         * the resources found through its parent are left out,
+         * they were built with the parent's classes, which may be older than the classes of [loader],
+         * for example the base apk, under classes that have been reloaded by Sloth
+         */
+        fun of(loader: ClassLoader?) = if (loader == null) empty else synchronized(indexes) {
+            indexes.getOrPut(loader) { load(loader) }
+        }
+
+        private fun load(loader: ClassLoader): ProgramIndex {
+            val inherited = loader.parent?.getResources(PATH)?.asSequence()?.map { it.toExternalForm() }?.toSet().orEmpty()
+            val entries = HashMap<String, List<Entry>>()
+            val fingerprints = HashMap<String, String>()
+            loader.getResources(PATH).asSequence().filter { it.toExternalForm() !in inherited }.forEach { url ->
+                url.openStream().bufferedReader().useLines { lines ->
+                    lines.filter { it.isNotBlank() }.forEach { line ->
+                        val parts = line.split('\t')
+                        val fingerprint = parts.getOrNull(1)?.takeIf { it.startsWith("F:") }
+                        if (fingerprint != null) fingerprints[parts[0]] = fingerprint.substring(2)
+                        entries[parts[0]] = parts.drop(if (fingerprint != null) 2 else 1).map { entry ->
+                            Entry(
+                                when (entry[0]) {
+                                    'P' -> Kind.REGISTRAR
+                                    'R' -> Kind.PROGRAM
+                                    else -> throw IllegalStateException("unknown program index entry: $entry")
+                                },
+                                entry.substring(2),
+                            )
+                        }
+                    }
+                }
+            }
+            return ProgramIndex(entries, fingerprints)
+        }
+    }
+}
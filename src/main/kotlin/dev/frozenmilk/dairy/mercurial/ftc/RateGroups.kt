@@ -0,0 +1,120 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.exec
+import dev.frozenmilk.dairy.mercurial.continuations.Continuations.loop
+import dev.frozenmilk.dairy.mercurial.continuations.Fiber
+
+/**
+ * the rate groups used by [Context.everyTicks] and [Context.every]
+ *
+ * a rate group runs its tasks once every n ticks, or once every period of [Context.tickTime],
+ * which suits work that does not need to run every tick, like telemetry, leds or vision polling
+ *
+ * all groups share a single [Fiber], which is started by the first group
+ *
+ * each group is offset within its period from the group made before it,
+ * by the golden ratio of its period,
+ * so groups with the same rate do not all run in the same tick
+ */
+class RateGroups internal constructor(private val context: Context) {
+    abstract class Group internal constructor() {
+        private val tasks = ArrayList<Runnable>()
+
+        /**
+         * [task] will be run each time this group is due
+         */
+        fun add(task: Runnable) = apply { tasks.add(task) }
+
+        fun remove(task: Runnable) {
+            tasks.remove(task)
+        }
+
+        internal fun run(ticks: Long, now: Long) {
+            if (!due(ticks, now)) return
+            for (i in 0 until tasks.size) tasks[i].run()
+        }
+
+        protected abstract fun due(ticks: Long, now: Long): Boolean
+    }
+
+    /**
+     * runs once every [period] ticks
+     */
+    class TickGroup internal constructor(
+        @get:JvmName("period") val period: Int,
+        private val phase: Int,
+    ) : Group() {
+        override fun due(ticks: Long, now: Long) = (ticks + phase) % period == 0L
+    }
+
+    /**
+     * runs once every [period] nanoseconds, in the first tick that starts once it is due
+     *
+     * if it falls more than a period behind, the periods that were missed are skipped
+     */
+    class TimeGroup internal constructor(
+        @get:JvmName("period") val period: Long,
+        private val offset: Long,
+    ) : Group() {
+        private var next = Long.MIN_VALUE
+
+        override fun due(ticks: Long, now: Long): Boolean {
+            if (next == Long.MIN_VALUE) next = now + offset
+            if (now < next) return false
+            next += ((now - next) / period + 1) * period
+            return true
+        }
+    }
+
+    private val groups = ArrayList<Group>()
+    private var made = 0
+    private var dispatcher: Fiber? = null
+
+    /**
+     * returns a new group that runs once every [period] ticks
+     */
+    fun everyTicks(period: Int): TickGroup {
+        if (period < 1) throw IllegalArgumentException("period must be at least 1 tick, not $period")
+        return added(TickGroup(period, (stagger() * period).toInt()))
+    }
+
+    /**
+     * returns a new group that runs once every [period] nanoseconds
+     */
+    fun every(period: Long): TimeGroup {
+        if (period < 1) throw IllegalArgumentException("period must be at least 1ns, not $period")
+        return added(TimeGroup(period, (stagger() * period).toLong()))
+    }
+
+    /**
+     * stops [group] from running
+     */
+    fun remove(group: Group) {
+        groups.remove(group)
+    }
+
+    /**
+     * the offset of the next group within its period, as a fraction of it
+     */
+    private fun stagger(): Double {
+        val res = (made * GOLDEN_RATIO) % 1.0
+        made++
+        return res
+    }
+
+    private fun <G : Group> added(group: G): G {
+        groups.add(group)
+        if (dispatcher == null) dispatcher = context.schedule(loop(exec { dispatch() }))
+        return group
+    }
+
+    private fun dispatch() {
+        val ticks = context.ticks
+        val now = context.tickTime
+        for (i in 0 until groups.size) groups[i].run(ticks, now)
+    }
+
+    private companion object {
+        const val GOLDEN_RATIO = 0.6180339887498949
+    }
+}
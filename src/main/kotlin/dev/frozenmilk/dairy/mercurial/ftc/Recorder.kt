@@ -0,0 +1,183 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicIntegerArray
+
+/**
+ * the axes recorded for each gamepad by [Context.recordInputs], in order
+ */
+internal val INPUT_AXES = Axis.values()
+
+/**
+ * the channels recorded by [Context.recordInputs], before its sensors
+ */
+internal val INPUT_CHANNELS = (listOf("state") + listOf("gamepad1", "gamepad2").flatMap { gamepad ->
+    listOf("$gamepad.buttons") + INPUT_AXES.map { "$gamepad.${it.name.lowercase()}" }
+}).toTypedArray()
+
+/**
+ * records a fixed set of channels once per tick, to a binary file, see [Context.recorder]
+ *
+ * setting a [Channel] only stores its value, which is held until it is set again,
+ * and at the end of each tick one record of [Context.tickTime] and every channel is written
+ * into one of a set of preallocated chunks
+ *
+ * full chunks are written to the file by the [BackgroundWriter],
+ * if it falls so far behind that no chunk is free, records are dropped, see [dropped]
+ *
+ * use [RecordingExport] to turn the file into csv
+ *
+ * a recorder without a file discards every record, see [discarding]
+ */
+class Recorder internal constructor(
+    file: File?,
+    names: List<String>,
+    private val writer: BackgroundWriter?,
+    chunkRecords: Int,
+    chunks: Int,
+) {
+    inner class Channel internal constructor(
+        @get:JvmName("name") val name: String,
+        private val index: Int,
+    ) {
+        fun set(value: Double) {
+            values[index] = value
+        }
+    }
+
+    private val values = DoubleArray(names.size)
+
+    @get:JvmName("channels")
+    val channels = names.mapIndexed { i, name -> Channel(name, i) }
+
+    private val output = file?.let { FileOutputStream(it).channel }
+    private val buffers = Array(chunks) { ByteBuffer.allocateDirect((8 + 8 * names.size) * chunkRecords) }
+
+    // 1 while a chunk is queued or being written
+    private val writing = AtomicIntegerArray(chunks)
+    private var current = 0
+    private var closed = output == null
+
+    /**
+     * the number of records dropped because the writer fell behind
+     */
+    @get:JvmName("dropped")
+    var dropped = 0L
+        private set
+
+    /**
+     * the number of chunks that could not be written to the file
+     */
+    @get:JvmName("failed")
+    @Volatile
+    var failed = 0L
+        private set
+
+    init {
+        if (output != null) writeHeader(output, names)
+    }
+
+    private fun writeHeader(output: FileChannel, names: List<String>) {
+        val header = ByteArrayOutputStream()
+        DataOutputStream(header).use { data ->
+            data.writeInt(MAGIC)
+            data.writeInt(VERSION)
+            data.writeInt(names.size)
+            names.forEach { data.writeUTF(it) }
+        }
+        val buffer = ByteBuffer.wrap(header.toByteArray())
+        while (buffer.hasRemaining()) output.write(buffer)
+    }
+
+    /**
+     * returns the channel called [name]
+     *
+     * @throws IllegalArgumentException if there is none
+     */
+    fun channel(name: String) = channels.firstOrNull { it.name == name }
+        ?: throw IllegalArgumentException("no channel called $name, channels are: ${channels.joinToString { it.name }}")
+
+    internal fun record(time: Long) {
+        if (closed) return
+        if (writing.get(current) == 1) {
+            dropped++
+            return
+        }
+        val buffer = buffers[current]
+        buffer.putLong(time)
+        val values = values
+        for (i in values.indices) buffer.putDouble(values[i])
+        if (!buffer.hasRemaining()) submit()
+    }
+
+    private fun submit() {
+        val i = current
+        val buffer = buffers[i]
+        buffer.flip()
+        writing.set(i, 1)
+        if (!writer!!.submit { write(i) }) {
+            dropped += buffer.remaining() / (8 + 8 * values.size)
+            buffer.clear()
+            writing.set(i, 0)
+            return
+        }
+        current = (i + 1) % buffers.size
+    }
+
+    private fun write(i: Int) {
+        val buffer = buffers[i]
+        try {
+            while (buffer.hasRemaining()) output!!.write(buffer)
+        } catch (e: IOException) {
+            failed++
+        } finally {
+            buffer.clear()
+            writing.set(i, 0)
+        }
+    }
+
+    /**
+     * queues the records that are left, and then closes the file
+     */
+    internal fun close() {
+        if (closed) return
+        closed = true
+        if (writing.get(current) == 0 && buffers[current].position() != 0) submit()
+        val output = output!!
+        if (!writer!!.submit { output.close() }) output.close()
+    }
+
+    companion object {
+        const val MAGIC = 0x4D524543 // MREC
+        const val VERSION = 1
+
+        /**
+         * reads the header of a recording, and returns its channel names
+         */
+        internal fun readHeader(data: DataInputStream): List<String> {
+            if (data.readInt() != MAGIC) throw IOException("not a recording")
+            val version = data.readInt()
+            if (version != VERSION) throw IOException("unsupported recording version: $version")
+            return List(data.readInt()) { data.readUTF() }
+        }
+
+        /**
+         * the number of records in each chunk
+         */
+        const val DEFAULT_CHUNK_RECORDS = 1024
+
+        const val DEFAULT_CHUNKS = 4
+
+        /**
+         * returns a recorder for [names] that writes nothing
+         */
+        internal fun discarding(names: List<String>) = Recorder(null, names, null, 0, 0)
+    }
+}
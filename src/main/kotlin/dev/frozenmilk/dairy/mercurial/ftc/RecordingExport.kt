@@ -0,0 +1,71 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.Writer
+
+/**
+ * decodes the files written by a [Recorder]
+ *
+ * from the command line, with the library on the classpath:
+ *
+ * ```
+ * java dev.frozenmilk.dairy.mercurial.ftc.RecordingExport recording.bin recording.csv
+ * ```
+ *
+ * the csv has a `time` column, in seconds since the first record,
+ * followed by a column for each channel
+ */
+object RecordingExport {
+    /**
+     * reads the recording from [input], and writes it as csv to [output]
+     *
+     * @return the number of records written
+     * @throws IOException if [input] is not a recording
+     */
+    @JvmStatic
+    fun toCsv(input: InputStream, output: Writer): Long {
+        val data = DataInputStream(BufferedInputStream(input))
+        val names = Recorder.readHeader(data)
+
+        output.write("time")
+        names.forEach { output.write(",$it") }
+        output.write("\n")
+
+        val values = DoubleArray(names.size)
+        var start = Long.MIN_VALUE
+        var records = 0L
+        while (true) {
+            try {
+                val time = data.readLong()
+                for (i in values.indices) values[i] = data.readDouble()
+                if (start == Long.MIN_VALUE) start = time
+                output.write(((time - start) / 1e9).toString())
+                for (value in values) output.write(",$value")
+                output.write("\n")
+                records++
+            } catch (e: EOFException) {
+                // a partial record at the end of the file is from a recording that was cut short
+                break
+            }
+        }
+        output.flush()
+        return records
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        if (args.size != 2) {
+            System.err.println("usage: RecordingExport <recording> <csv>")
+            return
+        }
+        val records = File(args[0]).inputStream().use { input ->
+            File(args[1]).bufferedWriter().use { output -> toCsv(input, output) }
+        }
+        println("exported $records records")
+    }
+}
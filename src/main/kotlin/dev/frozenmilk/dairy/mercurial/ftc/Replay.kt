@@ -0,0 +1,215 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import com.qualcomm.robotcore.hardware.Gamepad
+import com.qualcomm.robotcore.hardware.HardwareMap
+import dev.frozenmilk.dairy.mercurial.continuations.Scheduler
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.InputStream
+import java.util.function.DoubleSupplier
+import java.util.function.Supplier
+
+/**
+ * a recording written by a [Recorder], read into memory
+ */
+class Recording private constructor(
+    @get:JvmName("channels") val channels: List<String>,
+    private val times: LongArray,
+    private val values: Array<DoubleArray>,
+    @get:JvmName("size") val size: Int,
+) {
+    /**
+     * the time of [record], in nanoseconds
+     */
+    fun time(record: Int) = times[record]
+
+    fun value(record: Int, channel: Int) = values[channel][record]
+
+    /**
+     * returns the index of the channel called [name]
+     *
+     * @throws IllegalArgumentException if there is none
+     */
+    fun channel(name: String): Int {
+        val i = channels.indexOf(name)
+        if (i == -1) throw IllegalArgumentException("no channel called $name, channels are: ${channels.joinToString()}")
+        return i
+    }
+
+    companion object {
+        @JvmStatic
+        fun read(input: InputStream): Recording {
+            val data = DataInputStream(BufferedInputStream(input))
+            val channels = Recorder.readHeader(data)
+            var times = LongArray(1024)
+            var values = Array(channels.size) { DoubleArray(1024) }
+            var size = 0
+            while (true) {
+                try {
+                    val time = data.readLong()
+                    if (size == times.size) {
+                        times = times.copyOf(size * 2)
+                        values = Array(values.size) { values[it].copyOf(size * 2) }
+                    }
+                    for (channel in values) channel[size] = data.readDouble()
+                    times[size++] = time
+                } catch (e: EOFException) {
+                    // a partial record at the end of the file is from a recording that was cut short
+                    break
+                }
+            }
+            return Recording(channels, times, values, size)
+        }
+    }
+}
+
+/**
+ * a [Context] that replays a [Recording] made with [Context.recordInputs], rather than being run by an opmode
+ *
+ * each tick replays the next record: its [State], both gamepads, and the value of each [sensor]
+ *
+ * time is virtual: [tickTime] is the time that the record was recorded at,
+ * and fixed rate ticks do not sleep, so a program is replayed as fast as it can run
+ *
+ * once every record has been replayed, the state is [State.STOP]
+ *
+ * nothing is recorded while replaying, [recorder] and [recordInputs] return recorders that discard everything,
+ * so replaying a program that records its inputs does not overwrite the recording being replayed
+ *
+ * the recording must have been made with [Context.recordInputs],
+ * otherwise the constructor throws an [IllegalArgumentException]
+ *
+ * ```kotlin
+ * val recording = File("teleop.bin").inputStream().use { Recording.read(it) }
+ * ReplayContext(recording, OpModeMeta.Builder().setName("teleop").build(), hardwareMap, telemetry).run(teleop)
+ * ```
+ */
+open class ReplayContext private constructor(
+    private val cursor: Cursor,
+    metadata: OpModeMeta,
+    scheduler: Scheduler,
+    hardwareMap: HardwareMap,
+    telemetry: Telemetry,
+) : Context(metadata, cursor, scheduler, hardwareMap, telemetry, Gamepad(), Gamepad()) {
+    @JvmOverloads
+    constructor(
+        recording: Recording,
+        metadata: OpModeMeta,
+        hardwareMap: HardwareMap,
+        telemetry: Telemetry,
+        scheduler: Scheduler = Scheduler.Standard(),
+    ) : this(Cursor(recording), metadata, scheduler, hardwareMap, telemetry)
+
+    private class Cursor(val recording: Recording) : Supplier<State> {
+        init {
+            if (recording.channels.size < INPUT_CHANNELS.size || INPUT_CHANNELS.indices.any { recording.channels[it] != INPUT_CHANNELS[it] }) {
+                throw IllegalArgumentException("the recording was not made with recordInputs, its channels are: ${recording.channels.joinToString()}")
+            }
+        }
+
+        /**
+         * the record being replayed
+         */
+        var record = 0
+
+        /**
+         * the next record, which becomes [record] once a tick starts with it
+         */
+        var next = 0
+        var time = if (recording.size == 0) 0L else recording.time(0)
+
+        override fun get(): State =
+            if (record >= recording.size) State.STOP
+            else STATES[recording.value(record, 0).toInt()]
+    }
+
+    init {
+        // the record is only used up once a tick runs with it,
+        // as the scheduler also checks its condition before it stops
+        onBeginTick { cursor.next = cursor.record + 1 }
+    }
+
+    override fun beforeTick() {
+        val cursor = cursor
+        val recording = cursor.recording
+        cursor.record = cursor.next
+        if (cursor.record >= recording.size) return
+        cursor.time = maxOf(cursor.time, recording.time(cursor.record))
+        replay(gamepad1, 1)
+        replay(gamepad2, 2 + INPUT_AXES.size)
+    }
+
+    private fun replay(gamepad: Gamepad, offset: Int) {
+        val recording = cursor.recording
+        val record = cursor.record
+        val buttons = recording.value(record, offset).toInt()
+        gamepad.a = buttons and Button.A.mask != 0
+        gamepad.b = buttons and Button.B.mask != 0
+        gamepad.x = buttons and Button.X.mask != 0
+        gamepad.y = buttons and Button.Y.mask != 0
+        gamepad.dpad_up = buttons and Button.DPAD_UP.mask != 0
+        gamepad.dpad_down = buttons and Button.DPAD_DOWN.mask != 0
+        gamepad.dpad_left = buttons and Button.DPAD_LEFT.mask != 0
+        gamepad.dpad_right = buttons and Button.DPAD_RIGHT.mask != 0
+        gamepad.left_bumper = buttons and Button.LEFT_BUMPER.mask != 0
+        gamepad.right_bumper = buttons and Button.RIGHT_BUMPER.mask != 0
+        gamepad.left_stick_button = buttons and Button.LEFT_STICK_BUTTON.mask != 0
+        gamepad.right_stick_button = buttons and Button.RIGHT_STICK_BUTTON.mask != 0
+        gamepad.back = buttons and Button.BACK.mask != 0
+        gamepad.start = buttons and Button.START.mask != 0
+        gamepad.guide = buttons and Button.GUIDE.mask != 0
+        gamepad.touchpad = buttons and Button.TOUCHPAD.mask != 0
+        gamepad.left_stick_x = recording.value(record, offset + 1).toFloat()
+        gamepad.left_stick_y = recording.value(record, offset + 2).toFloat()
+        gamepad.right_stick_x = recording.value(record, offset + 3).toFloat()
+        gamepad.right_stick_y = recording.value(record, offset + 4).toFloat()
+        gamepad.left_trigger = recording.value(record, offset + 5).toFloat()
+        gamepad.right_trigger = recording.value(record, offset + 6).toFloat()
+    }
+
+    override fun nanoTime() = cursor.time
+
+    override fun park(nanos: Long) {
+        cursor.time += nanos
+    }
+
+    /**
+     * returns a [Recorder] that discards everything, [file] is not opened
+     */
+    override fun recorder(file: File, vararg channels: String) = Recorder.discarding(channels.toList())
+
+    /**
+     * returns the recorded values of the sensor called [name], [read] is never called
+     *
+     * @throws IllegalArgumentException if [name] was not recorded
+     */
+    override fun sensor(name: String, read: DoubleSupplier): DoubleSupplier {
+        val cursor = cursor
+        val channel = cursor.recording.channel(name)
+        return DoubleSupplier {
+            val recording = cursor.recording
+            recording.value(cursor.record.coerceAtMost(recording.size - 1), channel)
+        }
+    }
+
+    /**
+     * runs [program] until it finishes, or the recording runs out
+     *
+     * see the extension for a [Mercurial.Program]
+     */
+    fun run(program: ReplayContext.() -> Unit) {
+        try {
+            program(this)
+        } finally {
+            shutdown()
+        }
+    }
+
+    private companion object {
+        val STATES = State.values()
+    }
+}
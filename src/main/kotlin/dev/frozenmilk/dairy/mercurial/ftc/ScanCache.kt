@@ -0,0 +1,35 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeMeta
+
+/**
+ * the programs registered from each class, by class name and fingerprint, kept across Sloth reloads
+ *
+ * when a class is reloaded with the same fingerprint in its [ProgramIndex],
+ * its programs are registered again from here, without initialising the class,
+ * and their fields are only read when they are initialised, as with [Mercurial.LazyProgram]
+ *
+ * the fingerprint is a hash of the source file of the class, written by `MercurialFTC-Processor`,
+ * so only java classes are cached,
+ * and classes that declare a [Mercurial.ProgramRegistrar] are never cached,
+ * as what it registers is only known once it runs
+ */
+internal object ScanCache {
+    class Program(val field: String, val metadata: OpModeMeta)
+
+    private class Scanned(val fingerprint: String, val programs: List<Program>)
+
+    private val scanned = HashMap<String, Scanned>()
+
+    /**
+     * returns the programs registered from [cls] by the last scan with the same [fingerprint],
+     * or null if there was none
+     */
+    operator fun get(cls: Class<*>, fingerprint: String) = synchronized(scanned) {
+        scanned[cls.name]?.takeIf { it.fingerprint == fingerprint }?.programs
+    }
+
+    operator fun set(cls: Class<*>, fingerprint: String, programs: List<Program>) = synchronized(scanned) {
+        scanned[cls.name] = Scanned(fingerprint, programs)
+    }
+}
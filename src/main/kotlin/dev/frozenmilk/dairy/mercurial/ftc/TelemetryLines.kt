@@ -0,0 +1,132 @@
+package dev.frozenmilk.dairy.mercurial.ftc
+
+import org.firstinspires.ftc.robotcore.external.Func
+import org.firstinspires.ftc.robotcore.external.Telemetry
+import java.util.function.Supplier
+
+/**
+ * rate limited telemetry for a [Context]
+ *
+ * each [Line] is added to the [Telemetry] once, as a retained item,
+ * so nothing is added or removed from it each tick,
+ * and a line is only formatted when a frame is actually sent
+ *
+ * setting a line only stores its value,
+ * so any number of [dev.frozenmilk.dairy.mercurial.continuations.Fiber]s can set lines each tick,
+ * and [Telemetry.update] is called once, at the end of the first tick after each [interval]
+ *
+ * the values of all lines are copied when a frame is due,
+ * so frames can be formatted and sent by a [BackgroundWriter], see [Context.writeInBackground]
+ */
+class TelemetryLines internal constructor(private val telemetry: Telemetry) {
+    /**
+     * the time between frames, in nanoseconds
+     */
+    @get:JvmName("interval")
+    var interval = DEFAULT_INTERVAL
+
+    private var lastFrame = Long.MIN_VALUE
+    private val lines = ArrayList<Line>()
+
+    internal var writer: BackgroundWriter? = null
+
+    @Volatile
+    private var sending = false
+    private val send = Runnable {
+        try {
+            telemetry.update()
+        } finally {
+            sending = false
+        }
+    }
+
+    class Line internal constructor(
+        @get:JvmName("caption") val caption: String,
+        private val format: String?,
+        private val supplier: Supplier<*>?,
+    ) {
+        internal var item: Telemetry.Item? = null
+        private var value: Any? = null
+        private var number = 0.0
+        private var isNumber = false
+
+        fun set(value: Any?) {
+            this.value = value
+            isNumber = false
+        }
+
+        /**
+         * the same as [set], but does not box [value]
+         */
+        fun set(value: Double) {
+            number = value
+            isNumber = true
+        }
+
+        private var frameValue: Any? = null
+        private var frameNumber = 0.0
+        private var frameIsNumber = false
+
+        internal fun copy() {
+            if (supplier != null) {
+                frameValue = supplier.get()
+                frameIsNumber = false
+            } else {
+                frameValue = value
+                frameNumber = number
+                frameIsNumber = isNumber
+            }
+        }
+
+        internal fun format(): Any? {
+            val value = if (frameIsNumber) frameNumber else frameValue
+            return if (format == null) value else String.format(format, value)
+        }
+    }
+
+    /**
+     * adds a line, which shows the last value it was [Line.set] to, formatted with [format] if given
+     */
+    @JvmOverloads
+    fun line(caption: String, format: String? = null) = added(Line(caption, format, null))
+
+    /**
+     * adds a line, which shows the value of [supplier] when each frame is sent,
+     * formatted with [format] if given
+     */
+    @JvmOverloads
+    fun line(caption: String, format: String? = null, supplier: Supplier<*>) = added(Line(caption, format, supplier))
+
+    private fun added(line: Line): Line {
+        line.item = telemetry.addData(line.caption, Func { line.format() }).setRetained(true)
+        lines.add(line)
+        return line
+    }
+
+    fun remove(line: Line) {
+        telemetry.removeItem(line.item ?: return)
+        line.item = null
+        lines.remove(line)
+    }
+
+    internal fun endTick(now: Long) {
+        if (lastFrame != Long.MIN_VALUE && now - lastFrame < interval) return
+        // the last frame is still being sent, so the link is saturated, and this one is skipped
+        if (sending) return
+        lastFrame = now
+        for (i in 0 until lines.size) lines[i].copy()
+        val writer = writer
+        if (writer == null) send.run()
+        else {
+            sending = true
+            if (!writer.submit(send)) sending = false
+        }
+    }
+
+    companion object {
+        /**
+         * the default [interval], the same as the default transmission interval of the sdk, 250ms
+         */
+        const val DEFAULT_INTERVAL = 250_000_000L
+    }
+}